@@ -45,6 +45,23 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        // В JVM-тестах методы android.* (Log и т.п.) возвращают значения по умолчанию, а не падают
+        unitTests.isReturnDefaultValues = true
+    }
+}
+
+// Замеры задержек поиска идут около минуты и зависят от машины: в обычном прогоне тестов
+// их нет, отдельная задача CI (.github/workflows/tests.yml) запускает только их
+// через ./gradlew testDebugUnitTest -PlatencyBenchmark
+tasks.withType<Test>().configureEach {
+    useJUnit {
+        if (project.hasProperty("latencyBenchmark")) {
+            includeCategories("com.xdearboy.bookkeeper.api.LatencyBenchmark")
+        } else {
+            excludeCategories("com.xdearboy.bookkeeper.api.LatencyBenchmark")
+        }
+    }
 }
 
 dependencies {
@@ -97,6 +114,9 @@ dependencies {
     implementation("com.google.android.gms:play-services-auth:20.7.0")
     
     testImplementation(libs.junit)
+    // Локальный сервер с записанными ответами Google Books для замеров поиска
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.11.0")
+    testImplementation("androidx.arch.core:core-testing:2.2.0")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
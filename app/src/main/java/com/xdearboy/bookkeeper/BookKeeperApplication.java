@@ -8,11 +8,15 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
+import com.xdearboy.bookkeeper.api.HttpStack;
+import com.xdearboy.bookkeeper.api.NetworkMetrics;
 import com.xdearboy.bookkeeper.database.AppDatabase;
 import com.xdearboy.bookkeeper.repository.FirebaseRepository;
+import com.xdearboy.bookkeeper.util.BookCompaction;
 public class BookKeeperApplication extends Application {
     private static final String TAG = "BookKeeperApp";
     private static final boolean DEBUG_MODE = true; // Режим отладки
+    private static final boolean WARM_UP_NETWORK = true; // Заранее открываем соединение с Google Books
     // @Override
     public void onCreate() {
         super.onCreate();
@@ -39,12 +43,24 @@ public class BookKeeperApplication extends Application {
         }
         try {
             AppDatabase.init(getApplicationContext());
+            BookCompaction.runOnce(getApplicationContext());
         } catch (Exception e) {
             Log.e(TAG, "Ошибка при инициализации базы данных", e);
             if (!DEBUG_MODE) {
                 FirebaseCrashlytics.getInstance().recordException(e);
             }
         }
+        if (WARM_UP_NETWORK) {
+            HttpStack.getInstance().warmUp(getApplicationContext());
+        }
+    }
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (DEBUG_MODE && level == TRIM_MEMORY_UI_HIDDEN) {
+            // Приложение ушло в фон - выводим накопленную сетевую статистику
+            NetworkMetrics.getInstance().logDump();
+        }
     }
     private boolean checkGooglePlayServices() {
         try {
@@ -1,36 +1,56 @@
 package com.xdearboy.bookkeeper.api;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
 import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import androidx.collection.LruCache;
+import com.xdearboy.bookkeeper.database.AppDatabase;
 import com.xdearboy.bookkeeper.model.Book;
 import com.xdearboy.bookkeeper.util.Constants;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import okhttp3.OkHttpClient;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
-import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
 
 public class BookApiClient {
     private static final String TAG = "BookApiClient";
-    private static final int CACHE_SIZE = 50;
+    // Prefix of errors answered from the negative cache, see isRememberedFailure
+    private static final String RECENTLY_FAILED_PREFIX = "Recently failed: ";
+    private static final String LIST_FIELDS = FieldProjection.LIST.forPage();
+    private static final int SPARSE_RESULTS_THRESHOLD = 5;
+    private static final int PAGE_LENGTH = Math.min(Constants.PAGE_SIZE, 10);
     private final BookApiService apiService;
-    private final LruCache<String, List<Book>> searchCache;
+    private final SearchCache searchCache;
+    private final NegativeCache negativeCache = new NegativeCache();
     private final Executor executor;
-    private final SimpleDateFormat dateFormat;
+    private final InFlightRequests inFlight;
+    private final QuotaGuard quotaGuard = QuotaGuard.getInstance();
+    private final QueryPlanner queryPlanner = new QueryPlanner();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final HedgedSearch.LatencyEstimate searchLatency = new HedgedSearch.LatencyEstimate();
+    private final PagePrefetcher prefetcher;
+    private final VolumeHydrator hydrator;
+    // Registered with the application context until close(); null without a context
+    @Nullable
+    private final Context applicationContext;
+    @Nullable
+    private final ComponentCallbacks2 memoryCallbacks;
+    private volatile boolean parallelFallbacks;
+    private SearchHandle latestSearch;
+    private volatile RelevanceRanker ranker = RelevanceRanker.defaultRanker();
 
     public interface BooksCallback {
         void onBooksReceived(List<Book> books);
@@ -41,225 +61,429 @@ public class BookApiClient {
         void onError(String message);
     }
 
-    public BookApiClient() {
-        OkHttpClient okHttpClient = new OkHttpClient.Builder()
-                .connectTimeout(Constants.NETWORK_TIMEOUT, TimeUnit.SECONDS)
-                .readTimeout(Constants.NETWORK_TIMEOUT, TimeUnit.SECONDS)
-                .writeTimeout(Constants.NETWORK_TIMEOUT, TimeUnit.SECONDS)
-                .build();
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(Constants.GOOGLE_BOOKS_BASE_URL)
-                .client(okHttpClient)
-                .addConverterFactory(GsonConverterFactory.create())
-                .build();
-        apiService = retrofit.create(BookApiService.class);
-        searchCache = new LruCache<>(CACHE_SIZE);
-        executor = Executors.newFixedThreadPool(4);
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    /**
+     * A search callback that also receives results while a search made of several requests
+     * is still running: {@link #onPartial} with the merged, ranked results so far after each
+     * response that added books, then {@link #onSuccess} once with the complete result, or
+     * {@link #onError}. Searches answered by a single request or from the cache call
+     * {@link #onSuccess} only.
+     */
+    public interface StreamingSearchCallback extends OnSearchResultCallback {
+        void onPartial(List<Book> books);
     }
-    
-    private List<Book> convertApiResponseToBooks(BookApiResponse response) {
-        if (response == null || response.getItems() == null) {
-            return Collections.emptyList();
+
+    public interface OnBookResultCallback {
+        void onSuccess(Book book);
+        void onError(String message);
+    }
+
+    // Posts partial results while fallback queries are still running
+    private static final class LiveDataSearchCallback implements StreamingSearchCallback {
+        private final MutableLiveData<List<Book>> target;
+
+        LiveDataSearchCallback(MutableLiveData<List<Book>> target) {
+            this.target = target;
         }
-        
-        List<Book> books = new ArrayList<>();
-        for (BookApiResponse.Item item : response.getItems()) {
-            if (item.getVolumeInfo() == null) continue;
-            
-            Book book = new Book();
-            book.setId(UUID.randomUUID().toString());
-            book.setApiId(item.getId());
-            book.setTitle(item.getVolumeInfo().getTitle());
-            
-            // Set author
-            if (item.getVolumeInfo().getAuthors() != null && !item.getVolumeInfo().getAuthors().isEmpty()) {
-                book.setAuthor(String.join(", ", item.getVolumeInfo().getAuthors()));
-            } else {
-                book.setAuthor("Unknown Author");
-            }
-            
-            // Set description
-            if (item.getVolumeInfo().getDescription() != null) {
-                book.setDescription(item.getVolumeInfo().getDescription());
-            } else {
-                book.setDescription("");
-            }
-            
-            // Set categories/genre
-            if (item.getVolumeInfo().getCategories() != null && !item.getVolumeInfo().getCategories().isEmpty()) {
-                book.setGenre(String.join(", ", item.getVolumeInfo().getCategories()));
-            } else {
-                book.setGenre("General");
-            }
-            
-            // Set publish date
-            if (item.getVolumeInfo().getPublishedDate() != null) {
-                try {
-                    Date publishDate = dateFormat.parse(item.getVolumeInfo().getPublishedDate());
-                    book.setPublishDate(publishDate.getTime());
-                } catch (ParseException e) {
-                    Log.e(TAG, "Error parsing date: " + e.getMessage());
+
+        @Override
+        public void onPartial(List<Book> books) {
+            target.postValue(books);
+        }
+
+        @Override
+        public void onSuccess(List<Book> books) {
+            target.postValue(books);
+        }
+
+        @Override
+        public void onError(String message) {
+            target.postValue(new ArrayList<>());
+        }
+    }
+
+    private static final OnSearchResultCallback REVALIDATION = new OnSearchResultCallback() {
+        @Override
+        public void onSuccess(List<Book> books) {
+        }
+
+        @Override
+        public void onError(String message) {
+        }
+    };
+
+    public BookApiClient() {
+        this(null);
+    }
+
+    /**
+     * @param context when set, search results are also persisted in {@link AppDatabase}
+     *                and survive process restarts
+     */
+    public BookApiClient(@Nullable Context context) {
+        this(context, createApiService());
+    }
+
+    /**
+     * @param apiService where the books come from, e.g. a {@link SyntheticBookApiService}
+     *                   for development and load tests
+     */
+    public BookApiClient(@Nullable Context context, BookApiService apiService) {
+        this.apiService = apiService;
+        // Synthetic books must not end up in the cache or the books table of the real app
+        boolean persist = context != null && !(apiService instanceof SyntheticBookApiService);
+        AppDatabase database = persist ? AppDatabase.getInstance(context) : null;
+        searchCache = new SearchCache(searchCacheBudget(context), database);
+        applicationContext = context != null ? context.getApplicationContext() : null;
+        if (applicationContext != null) {
+            memoryCallbacks = new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    searchCache.trimMemory(level);
                 }
-            }
-            
-            // Set image URL
-            if (item.getVolumeInfo().getImageLinks() != null) {
-                if (item.getVolumeInfo().getImageLinks().getThumbnail() != null) {
-                    book.setImageUrl(item.getVolumeInfo().getImageLinks().getThumbnail().replace("http:", "https:"));
-                } else if (item.getVolumeInfo().getImageLinks().getSmallThumbnail() != null) {
-                    book.setImageUrl(item.getVolumeInfo().getImageLinks().getSmallThumbnail().replace("http:", "https:"));
+
+                @Override
+                public void onConfigurationChanged(@NonNull Configuration newConfig) {
                 }
-            }
-            
-            // Set publisher
-            if (item.getVolumeInfo().getPublisher() != null) {
-                book.setPublisher(item.getVolumeInfo().getPublisher());
-            }
-            
-            // Set page count
-            if (item.getVolumeInfo().getPageCount() > 0) {
-                book.setPageCount(item.getVolumeInfo().getPageCount());
-            }
-            
-            // Set ISBN
-            if (item.getVolumeInfo().getIndustryIdentifiers() != null) {
-                for (BookApiResponse.IndustryIdentifier identifier : item.getVolumeInfo().getIndustryIdentifiers()) {
-                    if ("ISBN_13".equals(identifier.getType())) {
-                        book.setIsbn(identifier.getIdentifier());
-                        break;
-                    } else if ("ISBN_10".equals(identifier.getType()) && book.getIsbn() == null) {
-                        book.setIsbn(identifier.getIdentifier());
-                    }
+
+                @Override
+                public void onLowMemory() {
+                    searchCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
                 }
+            };
+            applicationContext.registerComponentCallbacks(memoryCallbacks);
+        } else {
+            memoryCallbacks = null;
+        }
+        executor = Executors.newFixedThreadPool(4);
+        hydrator = new VolumeHydrator(apiService, database, executor, scheduler, quotaGuard);
+        inFlight = new InFlightRequests();
+        prefetcher = new PagePrefetcher(applicationContext);
+    }
+
+    /**
+     * Stops listening to memory pressure. The application context outlives the client, so a
+     * client that is dropped before the process ends has to be closed, or the context keeps
+     * it and its cache alive. Safe to call more than once.
+     */
+    public void close() {
+        if (applicationContext != null) {
+            applicationContext.unregisterComponentCallbacks(memoryCallbacks);
+        }
+    }
+
+    private static BookApiService createApiService() {
+        if (Constants.USE_SYNTHETIC_BOOKS
+                || Constants.GOOGLE_BOOKS_API_KEY == null || Constants.GOOGLE_BOOKS_API_KEY.isEmpty()) {
+            Log.w(TAG, "Google Books не используется, книги берутся из синтетического каталога");
+            SyntheticBookApiService synthetic = new SyntheticBookApiService(Constants.SYNTHETIC_CATALOG_SEED,
+                    Constants.SYNTHETIC_CATALOG_SIZE);
+            // About as slow as Google Books, so loading states can be seen
+            synthetic.setLatency(100, 400);
+            return synthetic;
+        }
+        // All clients share one connection pool and dispatcher
+        return HttpStack.getInstance().getRetrofit().create(BookApiService.class);
+    }
+
+    // Half the budget on low-RAM devices
+    private static int searchCacheBudget(@Nullable Context context) {
+        ActivityManager activityManager = context != null
+                ? (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE) : null;
+        if (activityManager != null && activityManager.isLowRamDevice()) {
+            return Constants.SEARCH_CACHE_MAX_BYTES / 2;
+        }
+        return Constants.SEARCH_CACHE_MAX_BYTES;
+    }
+
+    /** Changes the memory budget of the search cache; entries over it are evicted right away. */
+    public void setSearchCacheMaxBytes(int maxBytes) {
+        searchCache.setMaxBytes(maxBytes);
+    }
+
+    private static OnSearchResultCallback asSearchCallback(BooksCallback callback) {
+        return new OnSearchResultCallback() {
+            @Override
+            public void onSuccess(List<Book> books) {
+                callback.onBooksReceived(books);
             }
-            
-            // Set language
-            if (item.getVolumeInfo().getLanguage() != null) {
-                book.setLanguage(item.getVolumeInfo().getLanguage());
+
+            @Override
+            public void onError(String message) {
+                callback.onBooksReceived(new ArrayList<>());
             }
-            
-            // Set API flag
-            book.setFromApi(true);
-            
-            books.add(book);
-        }
-        
-        return books;
+        };
     }
     
+    /** Replaces the scorers used to order search results. */
+    public void setRelevanceRanker(RelevanceRanker ranker) {
+        this.ranker = ranker;
+    }
+
+    /**
+     * When enabled, fallback variants in {@link #searchBooksLiveData} are sent together with
+     * the primary query instead of being hedged behind it. Faster for sparse queries,
+     * but every search then costs all of its requests.
+     */
+    public void setParallelFallbacks(boolean parallelFallbacks) {
+        this.parallelFallbacks = parallelFallbacks;
+    }
+
     public void clearCache() {
         if (searchCache != null) {
             searchCache.evictAll();
         }
+        negativeCache.clear();
+    }
+
+    /**
+     * Serves the key from the persistent tier when possible and falls back to the network.
+     * A stale persisted result is delivered immediately and then revalidated in the background.
+     * While the API quota is exhausted the network is skipped entirely, and so it is for
+     * a key that recently found nothing or failed (see {@link NegativeCache}).
+     * Must be called by the in-flight leader for the key.
+     */
+    private void loadThroughPersistentTier(String cacheKey, @Nullable String localQuery, Runnable load) {
+        Runnable networkLoad = unlessRecentlyFailed(cacheKey, load);
+        if (quotaGuard.isOpen()) {
+            executor.execute(() -> serveWhileLimited(cacheKey, localQuery));
+            return;
+        }
+        if (!searchCache.hasPersistentTier()) {
+            executor.execute(networkLoad);
+            return;
+        }
+        executor.execute(() -> {
+            SearchCache.PersistedEntry persisted = searchCache.getPersisted(cacheKey);
+            if (persisted == null) {
+                networkLoad.run();
+                return;
+            }
+            Log.d(TAG, "Результат из постоянного кэша: " + cacheKey + (persisted.stale ? " (устарел)" : ""));
+            inFlight.complete(cacheKey, persisted.books);
+            if (persisted.stale && inFlight.join(cacheKey, REVALIDATION)) {
+                networkLoad.run();
+            }
+        });
     }
     
-    public void searchBooks(String query, OnSearchResultCallback callback) {
+    /**
+     * Whether the error was answered from the negative cache rather than by the API. Such an
+     * answer says nothing about the API right now, so it should not count as a failed call.
+     */
+    public static boolean isRememberedFailure(@Nullable String message) {
+        return message != null && message.startsWith(RECENTLY_FAILED_PREFIX);
+    }
+
+    // Settles the key from the negative cache instead of running the load, if it has an entry
+    private Runnable unlessRecentlyFailed(String cacheKey, Runnable networkLoad) {
+        return () -> {
+            NegativeCache.Outcome outcome = negativeCache.get(cacheKey);
+            if (outcome == null) {
+                networkLoad.run();
+            } else if (outcome == NegativeCache.Outcome.EMPTY) {
+                Log.d(TAG, "Запрос недавно ничего не нашёл: " + cacheKey);
+                inFlight.complete(cacheKey, new ArrayList<>());
+            } else {
+                Log.d(TAG, "Запрос недавно завершился ошибкой " + outcome + ": " + cacheKey);
+                inFlight.fail(cacheKey, RECENTLY_FAILED_PREFIX + outcome);
+            }
+        };
+    }
+
+    // Remembers a search that ended without books; not while the quota guard is open,
+    // since then the failure says nothing about the query
+    private void rememberNoResults(String cacheKey, @Nullable NegativeCache.Outcome outcome) {
+        if (outcome == null || quotaGuard.isOpen()) {
+            return;
+        }
+        negativeCache.record(cacheKey, outcome);
+    }
+
+    // Answers from the persistent tier, or failing that from the local books table, without touching the API
+    private void serveWhileLimited(String cacheKey, @Nullable String localQuery) {
+        SearchCache.PersistedEntry persisted = searchCache.getPersisted(cacheKey);
+        if (persisted != null) {
+            Log.d(TAG, "Квота исчерпана, результат из постоянного кэша: " + cacheKey);
+            inFlight.complete(cacheKey, persisted.books);
+            return;
+        }
+        if (localQuery != null && searchCache.hasPersistentTier()) {
+            List<Book> localBooks = searchCache.searchLocal(localQuery);
+            Log.d(TAG, "Квота исчерпана, найдено в локальной базе: " + localBooks.size());
+            inFlight.complete(cacheKey, localBooks);
+            return;
+        }
+        inFlight.fail(cacheKey, "API quota exhausted");
+    }
+
+    /** Quota state of the Google Books API, for showing a degraded mode in the UI. */
+    public LiveData<QuotaGuard.State> getQuotaState() {
+        return quotaGuard.getState();
+    }
+
+    /**
+     * Starts a search that supersedes the previous one started through this method: the
+     * previous search is cancelled and its result, if it still arrives, is dropped.
+     * Meant for search-as-you-type.
+     */
+    public SearchHandle searchBooksLatestWins(String query, OnSearchResultCallback callback) {
+        SearchHandle handle = searchBooks(query, callback);
+        SearchHandle superseded;
+        synchronized (this) {
+            superseded = latestSearch;
+            latestSearch = handle;
+        }
+        if (superseded != null) {
+            superseded.cancel();
+        }
+        return handle;
+    }
+
+    public SearchHandle searchBooks(String query, OnSearchResultCallback callback) {
         if (query == null || query.trim().isEmpty()) {
             callback.onSuccess(new ArrayList<>());
-            return;
+            return SearchHandle.completed();
         }
         
         final String normalizedQuery = query.trim();
-        String cacheKey = normalizedQuery + "_20";
+        String cacheKey = searchKey(normalizedQuery);
         List<Book> cachedBooks = searchCache.get(cacheKey);
         
         if (cachedBooks != null) {
             callback.onSuccess(cachedBooks);
-            return;
+            return SearchHandle.completed();
+        }
+        SearchHandle handle = new SearchHandle();
+        if (!joinWithHandle(cacheKey, handle, callback)) {
+            Log.d(TAG, "Присоединяемся к выполняющемуся запросу: " + cacheKey);
+            return handle;
         }
         
+        loadThroughPersistentTier(cacheKey, normalizedQuery, () -> fetchSearch(normalizedQuery, cacheKey));
+        return handle;
+    }
+
+    /**
+     * Answers a {@link #searchBooks(String, OnSearchResultCallback)} query from the memory and
+     * persistent caches only, never from the network. Delivers an empty list when nothing is
+     * cached, always on a background thread.
+     */
+    public void searchCachedOnly(String query, OnSearchResultCallback callback) {
+        if (query == null || query.trim().isEmpty()) {
+            executor.execute(() -> callback.onSuccess(new ArrayList<>()));
+            return;
+        }
+        String cacheKey = searchKey(query.trim());
         executor.execute(() -> {
-            try {
-                Call<BookApiResponse> call = apiService.searchBooksByLanguage(normalizedQuery, 20, "ru", Constants.GOOGLE_BOOKS_API_KEY);
-                Response<BookApiResponse> response = call.execute();
-                
-                if (response.isSuccessful() && response.body() != null) {
-                    List<Book> books = convertApiResponseToBooks(response.body());
-                    searchCache.put(cacheKey, books);
-                    callback.onSuccess(books);
-                } else {
-                    callback.onError("Error fetching books: " + response.message());
-                }
-            } catch (Exception e) {
-                callback.onError("Error: " + e.getMessage());
+            List<Book> cachedBooks = searchCache.get(cacheKey);
+            if (cachedBooks == null) {
+                SearchCache.PersistedEntry persisted = searchCache.getPersisted(cacheKey);
+                cachedBooks = persisted != null ? persisted.books : new ArrayList<>();
             }
+            callback.onSuccess(cachedBooks);
         });
     }
 
-    public void fetchBooks(BooksCallback callback) {
-        if (Constants.GOOGLE_BOOKS_API_KEY == null || Constants.GOOGLE_BOOKS_API_KEY.isEmpty()) {
-            Log.w(TAG, "API key is not set. Using test books for fetchBooks.");
-            List<Book> allTestBooks = new ArrayList<>();
-            String[] categories = {
-            };
-            for (String category : categories) {
-                generateTestBooks(category, books -> {
-                    synchronized (allTestBooks) {
-                        allTestBooks.addAll(books);
-                        if (allTestBooks.size() >= categories.length * 3) {
-                            Log.d(TAG, "Сгенерировано тестовых книг для fetchBooks: " + allTestBooks.size());
-                            callback.onBooksReceived(allTestBooks);
-                        }
-                    }
-                });
+    private static String searchKey(String normalizedQuery) {
+        return SearchKey.search(normalizedQuery, 20);
+    }
+
+    /**
+     * Joins the in-flight request for the key on behalf of the handle. Once the handle is
+     * cancelled nothing more is delivered to the callback.
+     * @return true if the caller is the leader
+     */
+    private boolean joinWithHandle(String cacheKey, SearchHandle handle, OnSearchResultCallback callback) {
+        OnSearchResultCallback guarded = new StreamingSearchCallback() {
+            @Override
+            public void onPartial(List<Book> books) {
+                if (callback instanceof StreamingSearchCallback && !handle.isCancelled()) {
+                    ((StreamingSearchCallback) callback).onPartial(books);
+                }
             }
+
+            @Override
+            public void onSuccess(List<Book> books) {
+                if (!handle.isCancelled()) {
+                    callback.onSuccess(books);
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                if (!handle.isCancelled()) {
+                    callback.onError(message);
+                }
+            }
+        };
+        boolean leader = inFlight.join(cacheKey, guarded);
+        handle.setOnCancel(() -> inFlight.leave(cacheKey, guarded));
+        return leader;
+    }
+
+    private void fetchSearch(String normalizedQuery, String cacheKey) {
+        Call<VolumePage> call = apiService.searchBooksByLanguage(normalizedQuery, 20, "ru", LIST_FIELDS,
+                Constants.GOOGLE_BOOKS_API_KEY);
+        if (!inFlight.attach(cacheKey, call::cancel)) {
+            Log.d(TAG, "Поиск отменён до отправки: " + normalizedQuery);
             return;
         }
-        String[] queries = {
-        };
-        int maxResults = 40;
-        List<Book> allBooks = new ArrayList<>();
-        final int[] completedQueries = { 0 };
-        final boolean[] apiError = { false };
-        Log.d(TAG, "Начинаем загрузку книг из API, категорий: " + queries.length);
-        for (String query : queries) {
-            clearCache();
-            searchBooks(query, maxResults, books -> {
-                if (books != null) {
-                    Log.d(TAG, "Получено книг из категории '" + query + "': " + books.size());
-                    synchronized (allBooks) {
-                        for (Book book : books) {
-                            boolean isDuplicate = false;
-                            for (Book existingBook : allBooks) {
-                                if (existingBook.getId().equals(book.getId()) ||
-                                        (existingBook.getTitle().equals(book.getTitle()) &&
-                                                existingBook.getAuthor().equals(book.getAuthor()))) {
-                                    isDuplicate = true;
-                                    break;
-                                }
-                            }
-                            if (!isDuplicate) {
-                                allBooks.add(book);
-                            }
-                        }
-                    }
+        try {
+            Response<VolumePage> response = call.execute();
+            
+            if (response.isSuccessful() && response.body() != null) {
+                List<Book> books = response.body().getBooks();
+                if (books.isEmpty()) {
+                    rememberNoResults(cacheKey, NegativeCache.Outcome.EMPTY);
+                } else {
+                    searchCache.put(cacheKey, books);
                 }
-                completedQueries[0]++;
-                Log.d(TAG, "Завершено запросов: " + completedQueries[0] + " из " + queries.length);
-                if (completedQueries[0] == queries.length) {
-                    if (apiError[0] && allBooks.isEmpty()) {
-                        Log.w(TAG, "Ошибка API и нет результатов в fetchBooks. Используем тестовые книги.");
-                        List<Book> allTestBooks = new ArrayList<>();
-                        for (String category : queries) {
-                            generateTestBooks(category, testBooks -> {
-                                synchronized (allTestBooks) {
-                                    allTestBooks.addAll(testBooks);
-                                    if (allTestBooks.size() >= queries.length * 3) {
-                                        Log.d(TAG,
-                                                "Сгенерировано тестовых книг для fetchBooks: " + allTestBooks.size());
-                                        callback.onBooksReceived(allTestBooks);
-                                    }
-                                }
-                            });
+                inFlight.complete(cacheKey, books);
+            } else {
+                rememberNoResults(cacheKey, NegativeCache.classify(response.code()));
+                inFlight.fail(cacheKey, "Error fetching books: " + response.message());
+            }
+        } catch (Exception e) {
+            if (call.isCanceled()) {
+                return;
+            }
+            rememberNoResults(cacheKey, NegativeCache.classify(e));
+            inFlight.fail(cacheKey, "Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a single volume with the {@link FieldProjection#DETAILS} profile. Used to upgrade
+     * a book that came from a list search (no description) when its details are opened.
+     */
+    public void getBookDetails(String volumeId, OnBookResultCallback callback) {
+        apiService.getBookById(volumeId, FieldProjection.DETAILS.forVolume(), Constants.GOOGLE_BOOKS_API_KEY)
+                .enqueue(new Callback<Book>() {
+                    @Override
+                    public void onResponse(Call<Book> call, Response<Book> response) {
+                        if (response.isSuccessful() && response.body() != null) {
+                            callback.onSuccess(response.body());
+                        } else {
+                            Log.e(TAG, "Ошибка API при загрузке книги " + volumeId + ": " + response.code());
+                            callback.onError("Error fetching book: " + response.code());
                         }
-                        return;
                     }
-                    Log.d(TAG, "Загружено всего книг: " + allBooks.size());
-                    callback.onBooksReceived(allBooks);
-                }
-            });
-        }
+
+                    @Override
+                    public void onFailure(Call<Book> call, Throwable t) {
+                        Log.e(TAG, "Ошибка сети при загрузке книги " + volumeId + ": " + t.getMessage());
+                        callback.onError("Error: " + t.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Loads the details of several volumes at once, e.g. the books a user has borrowed.
+     * Books that are already complete locally are not requested again; the others are
+     * fetched in parallel within {@link Constants#HYDRATION_DEADLINE_MS} and stored.
+     */
+    public void hydrateBooks(List<String> volumeIds, OnSearchResultCallback callback) {
+        hydrator.hydrate(volumeIds, Constants.HYDRATION_DEADLINE_MS, callback);
     }
 
     public LiveData<List<Book>> searchBooksLiveData(String query, int maxResults) {
@@ -269,340 +493,269 @@ public class BookApiClient {
             return booksLiveData;
         }
         final String normalizedQuery = query.trim();
-        String cacheKey = normalizedQuery + "_" + maxResults;
+        String cacheKey = SearchKey.search(normalizedQuery, maxResults);
         List<Book> cachedBooks = searchCache.get(cacheKey);
         if (cachedBooks != null) {
             booksLiveData.setValue(cachedBooks);
             return booksLiveData;
         }
-        if (Constants.GOOGLE_BOOKS_API_KEY == null || Constants.GOOGLE_BOOKS_API_KEY.isEmpty()) {
-            Log.w(TAG, "API ключ не указан. Используем тестовые книги для LiveData.");
-            List<Book> testBooks = new ArrayList<>();
-            generateTestBooks(normalizedQuery, books -> {
-                testBooks.addAll(books);
-                booksLiveData.postValue(testBooks);
-            });
+        boolean leader = inFlight.join(cacheKey, new LiveDataSearchCallback(booksLiveData));
+        if (!leader) {
+            Log.d(TAG, "Присоединяемся к выполняющемуся запросу: " + cacheKey);
             return booksLiveData;
         }
-        executor.execute(() -> {
-            try {
-                Log.d(TAG, "Выполняем поиск по запросу: " + normalizedQuery);
-                Call<BookApiResponse> call;
-                if (normalizedQuery.contains(" ")) {
-                    call = apiService.searchBooksByLanguage("\"" + normalizedQuery + "\"", maxResults, "ru",
-                            Constants.GOOGLE_BOOKS_API_KEY);
-                } else {
-                    call = apiService.searchBooksByLanguage(normalizedQuery, maxResults, "ru",
-                            Constants.GOOGLE_BOOKS_API_KEY);
-                }
-                Response<BookApiResponse> response = call.execute();
-                List<Book> allBooks = new ArrayList<>();
-                boolean apiError = false;
-                if (response.isSuccessful() && response.body() != null) {
-                    List<Book> books = convertApiResponseToBooks(response.body());
-                    allBooks.addAll(books);
-                    Log.d(TAG, "Получено книг от API (первый запрос): " + books.size());
-                    if (books.size() < 5 && normalizedQuery.contains(" ")) {
-                        try {
-                            Thread.sleep(500);
-                            Call<BookApiResponse> secondCall = apiService.searchBooksByLanguage(normalizedQuery,
-                                    maxResults, "ru", Constants.GOOGLE_BOOKS_API_KEY);
-                            Response<BookApiResponse> secondResponse = secondCall.execute();
-                            if (secondResponse.isSuccessful() && secondResponse.body() != null) {
-                                List<Book> additionalBooks = convertApiResponseToBooks(secondResponse.body());
-                                Log.d(TAG, "Получено книг от API (второй запрос): " + additionalBooks.size());
-                                for (Book book : additionalBooks) {
-                                    boolean isDuplicate = false;
-                                    for (Book existingBook : allBooks) {
-                                        if (existingBook.getId().equals(book.getId()) ||
-                                                (existingBook.getTitle().equals(book.getTitle()) &&
-                                                        existingBook.getAuthor().equals(book.getAuthor()))) {
-                                            isDuplicate = true;
-                                            break;
-                                        }
-                                    }
-                                    if (!isDuplicate) {
-                                        allBooks.add(book);
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Ошибка при выполнении второго запроса: " + e.getMessage());
-                        }
+        loadThroughPersistentTier(cacheKey, normalizedQuery,
+                () -> fetchSearchWithFallbacks(normalizedQuery, maxResults, cacheKey));
+        return booksLiveData;
+    }
+
+    private void fetchSearchWithFallbacks(String normalizedQuery, int maxResults, String cacheKey) {
+        Log.d(TAG, "Выполняем поиск по запросу: " + normalizedQuery);
+        boolean phrase = normalizedQuery.contains(" ");
+        List<Call<VolumePage>> calls = new ArrayList<>();
+        calls.add(apiService.searchBooksByLanguage(phrase ? "\"" + normalizedQuery + "\"" : normalizedQuery,
+                maxResults, "ru", LIST_FIELDS, Constants.GOOGLE_BOOKS_API_KEY));
+        if (phrase) {
+            calls.add(apiService.searchBooksByLanguage(normalizedQuery, maxResults, "ru", LIST_FIELDS,
+                    Constants.GOOGLE_BOOKS_API_KEY));
+        }
+        if (normalizedQuery.length() < 20) {
+            calls.add(apiService.searchBooksByLanguage(normalizedQuery + " книга", maxResults, "ru", LIST_FIELDS,
+                    Constants.GOOGLE_BOOKS_API_KEY));
+        }
+        new HedgedSearch(calls, SPARSE_RESULTS_THRESHOLD, parallelFallbacks, Constants.SEARCH_HEDGE_DEADLINE_MS,
+                scheduler, searchLatency, new HedgedSearch.Listener() {
+                    @Override
+                    public void onProgress(List<Book> merged) {
+                        ranker.rank(merged, normalizedQuery);
+                        inFlight.progress(cacheKey, merged);
                     }
-                    if (allBooks.size() < 5 && normalizedQuery.length() < 20) {
-                        try {
-                            Thread.sleep(500);
-                            String enhancedQuery = normalizedQuery + " книга";
-                            Call<BookApiResponse> thirdCall = apiService.searchBooksByLanguage(enhancedQuery,
-                                    maxResults, "ru", Constants.GOOGLE_BOOKS_API_KEY);
-                            Response<BookApiResponse> thirdResponse = thirdCall.execute();
-                            if (thirdResponse.isSuccessful() && thirdResponse.body() != null) {
-                                List<Book> additionalBooks = convertApiResponseToBooks(thirdResponse.body());
-                                Log.d(TAG, "Получено книг от API (третий запрос): " + additionalBooks.size());
-                                for (Book book : additionalBooks) {
-                                    boolean isDuplicate = false;
-                                    for (Book existingBook : allBooks) {
-                                        if (existingBook.getId().equals(book.getId()) ||
-                                                (existingBook.getTitle().equals(book.getTitle()) &&
-                                                        existingBook.getAuthor().equals(book.getAuthor()))) {
-                                            isDuplicate = true;
-                                            break;
-                                        }
-                                    }
-                                    if (!isDuplicate) {
-                                        allBooks.add(book);
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Ошибка при выполнении третьего запроса: " + e.getMessage());
+
+                    @Override
+                    public void onComplete(List<Book> merged, NegativeCache.Tally outcomes) {
+                        if (merged.isEmpty()) {
+                            Log.w(TAG, "Ошибка API или нет результатов в LiveData. Используем тестовые книги.");
+                            rememberNoResults(cacheKey, outcomes.outcome());
+                            generateTestBooks(normalizedQuery, books -> inFlight.complete(cacheKey, books));
+                            return;
                         }
+                        ranker.rank(merged, normalizedQuery);
+                        searchCache.put(cacheKey, merged);
+                        inFlight.complete(cacheKey, merged);
+                        Log.d(TAG, "Найдено книг по запросу '" + normalizedQuery + "' в LiveData: " + merged.size());
                     }
-                } else {
-                    int errorCode = response.code();
-                    Log.e(TAG, "API error in LiveData: " + errorCode);
-                    apiError = true;
-                }
-                if ((apiError && allBooks.isEmpty()) || allBooks.isEmpty()) {
-                    Log.w(TAG, "Ошибка API или нет результатов в LiveData. Используем тестовые книги.");
-                    generateTestBooks(normalizedQuery, books -> {
-                        searchCache.put(cacheKey, books);
-                        booksLiveData.postValue(books);
-                    });
-                    return;
-                }
-                sortBooksByRelevance(allBooks, normalizedQuery);
-                searchCache.put(cacheKey, allBooks);
-                booksLiveData.postValue(allBooks);
-                Log.d(TAG, "Найдено книг по запросу '" + normalizedQuery + "' в LiveData: " + allBooks.size());
-            } catch (Exception e) {
-                Log.e(TAG, "API call failed in LiveData", e);
-                generateTestBooks(normalizedQuery, books -> {
-                    searchCache.put(cacheKey, books);
-                    booksLiveData.postValue(books);
-                });
-            }
-        });
-        return booksLiveData;
+                }).start();
     }
 
-    private void sortBooksByRelevance(List<Book> books, String query) {
-        if (books == null || books.isEmpty() || query == null || query.isEmpty()) {
-            return;
-        }
-        final String lowerQuery = query.toLowerCase();
-        Collections.sort(books, (book1, book2) -> {
-            int relevance1 = calculateRelevance(book1, lowerQuery);
-            int relevance2 = calculateRelevance(book2, lowerQuery);
-            return Integer.compare(relevance2, relevance1);
-        });
+    public SearchHandle searchBooks(String query, int maxResults, BooksCallback callback) {
+        return searchBooks(query, maxResults, asSearchCallback(callback));
     }
 
-    private int calculateRelevance(Book book, String lowerQuery) {
-        int relevance = 0;
-        String title = book.getTitle();
-        if (title != null) {
-            String lowerTitle = title.toLowerCase();
-            if (lowerTitle.equals(lowerQuery)) {
-                relevance += 100;
-            } else if (lowerTitle.startsWith(lowerQuery)) {
-                relevance += 50;
-            } else if (lowerTitle.contains(lowerQuery)) {
-                relevance += 30;
-            } else {
-                String[] queryWords = lowerQuery.split("\\s+");
-                for (String word : queryWords) {
-                    if (word.length() > 2 && lowerTitle.contains(word)) {
-                        relevance += 10;
-                    }
-                }
-            }
+    /**
+     * Searches with the variants planned by {@link QueryPlanner}: the primary query first, then,
+     * if it found fewer than {@code maxResults} books, the other variants in parallel, each asking
+     * for the rest of the page. They are cancelled as soon as the page is full. Pass a {@link StreamingSearchCallback} to see the
+     * results of each request as it lands instead of waiting for the last one.
+     */
+    public SearchHandle searchBooks(String query, int maxResults, OnSearchResultCallback callback) {
+        String cacheKey = SearchKey.search(query, maxResults);
+        List<Book> cachedBooks = searchCache.get(cacheKey);
+        if (cachedBooks != null) {
+            callback.onSuccess(cachedBooks);
+            return SearchHandle.completed();
         }
-        String author = book.getAuthor();
-        if (author != null) {
-            String lowerAuthor = author.toLowerCase();
-            if (lowerAuthor.equals(lowerQuery)) {
-                relevance += 80;
-            } else if (lowerAuthor.startsWith(lowerQuery)) {
-                relevance += 40;
-            } else if (lowerAuthor.contains(lowerQuery)) {
-                relevance += 20;
-            } else {
-                String[] queryWords = lowerQuery.split("\\s+");
-                for (String word : queryWords) {
-                    if (word.length() > 2 && lowerAuthor.contains(word)) {
-                        relevance += 5;
-                    }
-                }
-            }
+        SearchHandle handle = new SearchHandle();
+        if (!joinWithHandle(cacheKey, handle, callback)) {
+            Log.d(TAG, "Присоединяемся к выполняющемуся запросу: " + cacheKey);
+            return handle;
         }
-        return relevance;
+        loadThroughPersistentTier(cacheKey, query, () -> fetchFanOut(query, maxResults, cacheKey));
+        return handle;
     }
 
-    public void searchBooks(String query, int maxResults, BooksCallback callback) {
-        String cacheKey = query + "_" + maxResults;
-        List<Book> cachedBooks = searchCache.get(cacheKey);
-        if (cachedBooks != null) {
-            callback.onBooksReceived(cachedBooks);
+    private void fetchFanOut(String query, int maxResults, String cacheKey) {
+        List<QueryPlanner.PlannedQuery> plan = queryPlanner.plan(query, maxResults);
+        if (plan.isEmpty()) {
+            inFlight.complete(cacheKey, new ArrayList<>());
             return;
         }
-        if (Constants.GOOGLE_BOOKS_API_KEY == null || Constants.GOOGLE_BOOKS_API_KEY.isEmpty()) {
-            Log.w(TAG, "API ключ не указан. Используем тестовые книги.");
-            generateTestBooks(query, callback);
+        Log.d(TAG, "План поиска для '" + query + "': " + plan);
+        CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        if (!inFlight.attach(cacheKey, () -> abandoned.cancel(false))) {
+            Log.d(TAG, "Поиск отменён, запросы не отправляем: " + cacheKey);
             return;
         }
-        List<String> enhancedQueries = new ArrayList<>();
-        enhancedQueries.add(query);
-        if (query.length() > 3) {
-            enhancedQueries.add(query);
-            String category = determineCategory(query);
-            if (category != null && !query.toLowerCase().contains(category.toLowerCase())) {
-                enhancedQueries.add(query + " " + category);
-            }
-        }
-        final List<Book> allBooks = new ArrayList<>();
-        final int[] completedQueries = { 0 };
-        final boolean[] apiError = { false };
-        Log.d(TAG, "Начинаем поиск книг с " + enhancedQueries.size() + " запросами");
-        int resultsPerQuery = Math.max(1, maxResults / Math.max(1, enhancedQueries.size()));
-        for (String enhancedQuery : enhancedQueries) {
-            Call<BookApiResponse> call = apiService.searchBooksByLanguage(enhancedQuery, resultsPerQuery, "ru",
-                    Constants.GOOGLE_BOOKS_API_KEY);
-            call.enqueue(new Callback<BookApiResponse>() {
-                @Override
-                public void onResponse(Call<BookApiResponse> call, Response<BookApiResponse> response) {
-                    if (response.isSuccessful() && response.body() != null) {
-                        List<Book> books = convertApiResponseToBooks(response.body());
-                        synchronized (allBooks) {
-                            for (Book book : books) {
-                                boolean isDuplicate = false;
-                                for (Book existingBook : allBooks) {
-                                    if (existingBook.getId().equals(book.getId()) ||
-                                            (existingBook.getTitle().equals(book.getTitle()) &&
-                                                    existingBook.getAuthor().equals(book.getAuthor()))) {
-                                        isDuplicate = true;
-                                        break;
-                                    }
-                                }
-                                if (!isDuplicate) {
-                                    allBooks.add(book);
-                                }
-                            }
-                        }
-                    } else {
-                        apiError[0] = true;
-                        int errorCode = response.code();
-                        Log.e(TAG, "Ошибка API при запросе '" + enhancedQuery + "': " + errorCode);
-                        try {
-                            if (response.errorBody() != null) {
-                                String errorBody = response.errorBody().string();
-                                Log.e(TAG, "API error body: " + errorBody);
-                            }
-                        } catch (Exception e) {
-                            Log.e(TAG, "Ошибка при чтении тела ошибки: " + e.getMessage());
-                        }
-                    }
-                    synchronized (allBooks) {
-                        completedQueries[0]++;
-                        if (completedQueries[0] == enhancedQueries.size()) {
-                            if (allBooks.isEmpty()) {
-                                Log.w(TAG, "Нет результатов поиска. Используем тестовые книги.");
-                                generateTestBooks(query, callback);
-                            } else {
-                                sortBooksByRelevance(allBooks, query);
-                                searchCache.put(cacheKey, allBooks);
-                                Log.d(TAG, "Поиск завершен, всего найдено книг: " + allBooks.size());
-                                callback.onBooksReceived(allBooks);
-                            }
-                        }
-                    }
-                }
-
-                @Override
-                public void onFailure(Call<BookApiResponse> call, Throwable t) {
-                    apiError[0] = true;
-                    completedQueries[0]++;
-                    Log.e(TAG, "Ошибка сети при запросе '" + enhancedQuery + "': " + t.getMessage());
-                    if (completedQueries[0] == enhancedQueries.size()) {
-                        if (allBooks.isEmpty()) {
-                            Log.w(TAG, "Нет результатов поиска из-за ошибок сети. Используем тестовые книги.");
-                            generateTestBooks(query, callback);
-                        } else {
-                            sortBooksByRelevance(allBooks, query);
-                            searchCache.put(cacheKey, allBooks);
-                            Log.d(TAG, "Поиск завершен с ошибками сети, найдено книг: " + allBooks.size());
-                            callback.onBooksReceived(allBooks);
-                        }
-                    }
-                }
+        BookMerger merger = new BookMerger();
+        NegativeCache.Tally outcomes = new NegativeCache.Tally();
+        List<Supplier<CompletableFuture<List<Book>>>> tasks = new ArrayList<>(plan.size());
+        for (QueryPlanner.PlannedQuery planned : plan) {
+            tasks.add(() -> {
+                // A variant asks only for what the primary left unfilled
+                int budget = Math.max(1, Math.min(planned.budget, maxResults - merger.size()));
+                return HedgedSearch.send(apiService.searchBooksByLanguage(planned.text, budget, "ru",
+                        LIST_FIELDS, Constants.GOOGLE_BOOKS_API_KEY), outcomes, "'" + planned.text + "'");
             });
         }
+        // The primary goes out alone; the variants together, only if it leaves the page short
+        CompletableFuture<Boolean> search = Futures.anyOf(tasks, (index, books) -> {
+            boolean added = books != null && merger.addAll(books) > 0;
+            boolean full = merger.size() >= maxResults;
+            if (!full && added) {
+                List<Book> partial = merger.snapshot();
+                ranker.rank(partial, query);
+                inFlight.progress(cacheKey, partial);
+            }
+            return full;
+        }, -1, Constants.PLANNED_SEARCH_DEADLINE_MS, scheduler);
+        abandoned.whenComplete((ignored, error) -> search.cancel(false));
+        search.whenComplete((full, error) -> {
+            if (search.isCancelled()) {
+                return;
+            }
+            if (error instanceof TimeoutException) {
+                Log.w(TAG, "Истёк срок ожидания поиска '" + query + "', найдено книг: " + merger.size());
+                outcomes.failure(NegativeCache.Outcome.TIMEOUT);
+            } else if (full && plan.size() > 1) {
+                Log.d(TAG, "Страница заполнена, оставшиеся запросы отменены");
+            }
+            finishPlannedSearch(query, cacheKey, merger, outcomes);
+        });
     }
 
-    private String determineCategory(String query) {
-        String lowerQuery = query.toLowerCase();
-        if (lowerQuery.contains("фантаст") || lowerQuery.contains("sci-fi") || lowerQuery.contains("научн")) {
-            return "фантастика";
-        } else if (lowerQuery.contains("детектив") || lowerQuery.contains("крими") || lowerQuery.contains("загадк")) {
-            return "детектив";
-        } else if (lowerQuery.contains("роман") || lowerQuery.contains("любов") || lowerQuery.contains("отношен")) {
-            return "роман";
-        } else if (lowerQuery.contains("истор") || lowerQuery.contains("войн") || lowerQuery.contains("древн")) {
-            return "история";
-        } else if (lowerQuery.contains("биограф") || lowerQuery.contains("мемуар")
-                || lowerQuery.contains("автобиограф")) {
-            return "биография";
-        } else if (lowerQuery.contains("програм") || lowerQuery.contains("код") || lowerQuery.contains("компьютер")) {
-            return "программирование";
-        } else if (lowerQuery.contains("психолог") || lowerQuery.contains("самопомощ")
-                || lowerQuery.contains("развит")) {
-            return "психология";
-        } else if (lowerQuery.contains("филос") || lowerQuery.contains("мысл") || lowerQuery.contains("бытие")) {
-            return "философия";
-        } else if (lowerQuery.contains("наук") || lowerQuery.contains("физик") || lowerQuery.contains("биолог")) {
-            return "наука";
-        } else if (lowerQuery.contains("искусств") || lowerQuery.contains("живопис") || lowerQuery.contains("музык")) {
-            return "искусство";
-        }
-        return null;
+    private void finishPlannedSearch(String query, String cacheKey, BookMerger merger, NegativeCache.Tally outcomes) {
+        if (merger.isEmpty()) {
+            NegativeCache.Outcome outcome = outcomes.outcome();
+            rememberNoResults(cacheKey, outcome);
+            if (outcome != NegativeCache.Outcome.EMPTY) {
+                // No request got through; callers falling back to other sources need to know
+                inFlight.fail(cacheKey, "Search failed: " + (outcome != null ? outcome : "network error"));
+                return;
+            }
+            Log.w(TAG, "Нет результатов поиска. Используем тестовые книги.");
+            generateTestBooks(query, books -> inFlight.complete(cacheKey, books));
+            return;
+        }
+        List<Book> allBooks = merger.snapshot();
+        ranker.rank(allBooks, query);
+        searchCache.put(cacheKey, allBooks);
+        Log.d(TAG, "Поиск завершен, всего найдено книг: " + allBooks.size());
+        inFlight.complete(cacheKey, allBooks);
     }
 
     public void loadBooksPage(String query, int page, BooksCallback callback) {
-        int startIndex = page * Constants.PAGE_SIZE;
-        String cacheKey = query + "_page_" + page;
+        loadBooksPage(query, page, asSearchCallback(callback));
+    }
+
+    /**
+     * Loads one page of results for the query. The callback gets an error, rather than an
+     * empty page, when the page could not be loaded, so the caller can ask for it again.
+     */
+    public void loadBooksPage(String query, int page, OnSearchResultCallback callback) {
+        prefetcher.onPageRequested(query);
+        OnSearchResultCallback deliver = new OnSearchResultCallback() {
+            @Override
+            public void onSuccess(List<Book> books) {
+                callback.onSuccess(books);
+                prefetchAfter(query, page, books.size());
+            }
+
+            @Override
+            public void onError(String message) {
+                callback.onError(message);
+            }
+        };
+        String cacheKey = SearchKey.page(query, page, PAGE_LENGTH);
         List<Book> cachedBooks = searchCache.get(cacheKey);
         if (cachedBooks != null) {
             Log.d(TAG, "Используем кэшированные книги для страницы " + page);
-            callback.onBooksReceived(cachedBooks);
+            deliver.onSuccess(cachedBooks);
             return;
         }
-        if (Constants.GOOGLE_BOOKS_API_KEY == null || Constants.GOOGLE_BOOKS_API_KEY.isEmpty()) {
-            Log.w(TAG, "API ключ не указан. Используем тестовые книги.");
-            generateTestBooks(query, callback);
+        if (!inFlight.join(cacheKey, deliver)) {
+            Log.d(TAG, "Присоединяемся к загрузке страницы " + page + ": " + query);
             return;
         }
-        String encodedQuery = query;
-        try {
-            encodedQuery = java.net.URLEncoder.encode(query, "UTF-8");
-        } catch (java.io.UnsupportedEncodingException e) {
-            Log.e(TAG, "Ошибка кодирования запроса: " + e.getMessage());
-        }
-        Log.d(TAG, "Загрузка страницы " + page + " для запроса: " + query);
-        apiService.searchBooksWithPaginationAndLanguage(
-                encodedQuery,
-                Math.min(Constants.PAGE_SIZE, 10),
+        // Later pages have no local equivalent, the first one does
+        loadThroughPersistentTier(cacheKey, page == 0 ? query : null, () -> fetchPage(query, page, cacheKey, false));
+    }
+
+    /**
+     * Starts loading a page into the cache before it is asked for, e.g. the page after results
+     * that came from another search method. Nothing is sent while the API quota is exhausted.
+     */
+    public void prefetchBooksPage(String query, int page) {
+        if (quotaGuard.isOpen()) {
+            return;
+        }
+        prefetcher.onPageRequested(query);
+        prefetchPage(query, page);
+    }
+
+    // Loads the next pages into searchCache while page N is being read
+    private void prefetchAfter(String query, int page, int deliveredCount) {
+        if (deliveredCount < PAGE_LENGTH || quotaGuard.isOpen()) {
+            return;
+        }
+        int depth = prefetcher.depth();
+        for (int next = page + 1; next <= page + depth; next++) {
+            prefetchPage(query, next);
+        }
+    }
+
+    private void prefetchPage(String query, int page) {
+        String cacheKey = SearchKey.page(query, page, PAGE_LENGTH);
+        if (searchCache.contains(cacheKey) || !inFlight.join(cacheKey, REVALIDATION)) {
+            return;
+        }
+        executor.execute(() -> {
+            if (!prefetcher.isCurrent(query)) {
+                inFlight.fail(cacheKey, "Prefetch cancelled");
+                return;
+            }
+            SearchCache.PersistedEntry persisted = searchCache.getPersisted(cacheKey);
+            if (persisted != null && !persisted.stale) {
+                inFlight.complete(cacheKey, persisted.books);
+                return;
+            }
+            Log.d(TAG, "Предзагрузка страницы " + page + " для запроса: " + query);
+            unlessRecentlyFailed(cacheKey, () -> fetchPage(query, page, cacheKey, true)).run();
+        });
+    }
+
+    private void fetchPage(String query, int page, String cacheKey, boolean prefetch) {
+        int startIndex = page * Constants.PAGE_SIZE;
+        final BooksCallback deliver = books -> inFlight.complete(cacheKey, books);
+        if (!prefetch) {
+            Log.d(TAG, "Загрузка страницы " + page + " для запроса: " + query);
+        }
+        // Retrofit encodes @Query values itself
+        Call<VolumePage> pageCall = apiService.searchBooksWithPaginationAndLanguage(
+                query,
+                PAGE_LENGTH,
                 startIndex,
                 "ru",
-                Constants.GOOGLE_BOOKS_API_KEY)
-                .enqueue(new Callback<BookApiResponse>() {
+                LIST_FIELDS,
+                Constants.GOOGLE_BOOKS_API_KEY);
+        if (prefetch && !prefetcher.track(query, cacheKey, pageCall)) {
+            inFlight.fail(cacheKey, "Prefetch cancelled");
+            return;
+        }
+        long startedAt = SystemClock.elapsedRealtime();
+        pageCall.enqueue(new Callback<VolumePage>() {
                     @Override
-                    public void onResponse(Call<BookApiResponse> call, Response<BookApiResponse> response) {
+                    public void onResponse(Call<VolumePage> call, Response<VolumePage> response) {
+                        prefetcher.untrack(cacheKey);
                         if (response.isSuccessful() && response.body() != null) {
-                            List<Book> books = convertApiResponseToBooks(response.body());
-                            searchCache.put(cacheKey, books);
+                            prefetcher.recordPageLatency(SystemClock.elapsedRealtime() - startedAt);
+                            List<Book> books = response.body().getBooks();
+                            if (books.isEmpty()) {
+                                // Past the last page
+                                rememberNoResults(cacheKey, NegativeCache.Outcome.EMPTY);
+                            } else {
+                                searchCache.put(cacheKey, books);
+                            }
                             Log.d(TAG, "Получено книг для страницы " + page + ": " + books.size());
-                            callback.onBooksReceived(books);
+                            deliver.onBooksReceived(books);
                         } else {
                             int errorCode = response.code();
                             Log.e(TAG, "API error: " + errorCode);
@@ -614,95 +767,24 @@ public class BookApiClient {
                             } catch (Exception e) {
                                 Log.e(TAG, "Ошибка при чтении тела ошибки: " + e.getMessage());
                             }
-                            generateTestBooks(query, callback);
+                            rememberNoResults(cacheKey, NegativeCache.classify(errorCode));
+                            inFlight.fail(cacheKey, "API error: " + errorCode);
                         }
                     }
 
                     @Override
-                    public void onFailure(Call<BookApiResponse> call, Throwable t) {
-                        Log.e(TAG, "Ошибка сети при запросе '" + query + "': " + t.getMessage());
-                        generateTestBooks(query, callback);
-                    }
-                });
-    }
-
-    private Callback<BookApiResponse> createCallbackWithErrorHandling(String query, List<Book> allBooks,
-            int[] completedQueries,
-            int totalQueries, String cacheKey, BooksCallback callback, boolean[] apiError) {
-        return new Callback<BookApiResponse>() {
-            @Override
-            public void onResponse(Call<BookApiResponse> call, Response<BookApiResponse> response) {
-                if (response.isSuccessful() && response.body() != null) {
-                    executor.execute(() -> {
-                        List<Book> books = convertApiResponseToBooks(response.body());
-                        Log.d(TAG, "Получено книг для запроса '" + query + "': " + books.size());
-                        synchronized (allBooks) {
-                            for (Book book : books) {
-                                boolean isDuplicate = false;
-                                for (Book existingBook : allBooks) {
-                                    if (existingBook.getId().equals(book.getId()) ||
-                                            (existingBook.getTitle().equals(book.getTitle()) &&
-                                                    existingBook.getAuthor().equals(book.getAuthor()))) {
-                                        isDuplicate = true;
-                                        break;
-                                    }
-                                }
-                                if (!isDuplicate) {
-                                    allBooks.add(book);
-                                }
-                            }
-                            completedQueries[0]++;
-                            if (completedQueries[0] == totalQueries) {
-                                if (apiError[0] && allBooks.isEmpty()) {
-                                    Log.w(TAG, "Ошибка API и нет результатов. Используем тестовые книги.");
-                                    generateTestBooks(query, callback);
-                                    return;
-                                }
-                                searchCache.put(cacheKey, allBooks);
-                                Log.d(TAG, "Всего получено книг для страницы: " + allBooks.size());
-                                callback.onBooksReceived(allBooks);
-                            }
-                        }
-                    });
-                } else {
-                    int errorCode = response.code();
-                    Log.e(TAG, "API error: " + errorCode);
-                    if (errorCode == 403) {
-                        apiError[0] = true;
-                    }
-                    synchronized (allBooks) {
-                        completedQueries[0]++;
-                        if (completedQueries[0] == totalQueries) {
-                            if (apiError[0] && allBooks.isEmpty()) {
-                                Log.w(TAG, "Ошибка API и нет результатов. Используем тестовые книги.");
-                                generateTestBooks(query, callback);
-                                return;
-                            }
-                            searchCache.put(cacheKey, allBooks);
-                            callback.onBooksReceived(allBooks);
-                        }
-                    }
-                }
-            }
-
-            @Override
-            public void onFailure(Call<BookApiResponse> call, Throwable t) {
-                Log.e(TAG, "API call failed", t);
-                apiError[0] = true;
-                synchronized (allBooks) {
-                    completedQueries[0]++;
-                    if (completedQueries[0] == totalQueries) {
-                        if (apiError[0] && allBooks.isEmpty()) {
-                            Log.w(TAG, "Ошибка API и нет результатов. Используем тестовые книги.");
-                            generateTestBooks(query, callback);
+                    public void onFailure(Call<VolumePage> call, Throwable t) {
+                        prefetcher.untrack(cacheKey);
+                        if (call.isCanceled()) {
+                            Log.d(TAG, "Предзагрузка страницы " + page + " отменена: " + query);
+                            inFlight.fail(cacheKey, "Prefetch cancelled");
                             return;
                         }
-                        searchCache.put(cacheKey, allBooks);
-                        callback.onBooksReceived(allBooks);
+                        Log.e(TAG, "Ошибка сети при запросе '" + query + "': " + t.getMessage());
+                        rememberNoResults(cacheKey, NegativeCache.classify(t));
+                        inFlight.fail(cacheKey, "Network error: " + t.getMessage());
                     }
-                }
-            }
-        };
+                });
     }
 
     private void generateTestBooks(String query, BooksCallback callback) {
@@ -1,5 +1,6 @@
 package com.xdearboy.bookkeeper.api;
 
+import com.xdearboy.bookkeeper.model.Book;
 import retrofit2.Call;
 import retrofit2.http.GET;
 import retrofit2.http.Path;
@@ -7,35 +8,38 @@ import retrofit2.http.Query;
 
 public interface BookApiService {
         @GET("volumes")
-        Call<BookApiResponse> searchBooks(
+        Call<VolumePage> searchBooks(
                         @Query("q") String query,
                         @Query("maxResults") int maxResults,
                         @Query("key") String key);
 
         @GET("volumes")
-        Call<BookApiResponse> searchBooksWithPagination(
+        Call<VolumePage> searchBooksWithPagination(
                         @Query("q") String query,
                         @Query("maxResults") int maxResults,
                         @Query("startIndex") int startIndex,
                         @Query("key") String key);
 
         @GET("volumes")
-        Call<BookApiResponse> searchBooksByLanguage(
+        Call<VolumePage> searchBooksByLanguage(
                         @Query("q") String query,
                         @Query("maxResults") int maxResults,
                         @Query("langRestrict") String langRestrict,
+                        @Query("fields") String fields,
                         @Query("key") String key);
 
         @GET("volumes/{volumeId}")
-        Call<BookApiResponse.Item> getBookById(
+        Call<Book> getBookById(
                         @Path("volumeId") String volumeId,
+                        @Query("fields") String fields,
                         @Query("key") String key);
 
         @GET("volumes")
-        Call<BookApiResponse> searchBooksWithPaginationAndLanguage(
+        Call<VolumePage> searchBooksWithPaginationAndLanguage(
                         @Query("q") String query,
                         @Query("maxResults") int maxResults,
                         @Query("startIndex") int startIndex,
                         @Query("langRestrict") String langRestrict,
+                        @Query("fields") String fields,
                         @Query("key") String key);
 }
\ No newline at end of file
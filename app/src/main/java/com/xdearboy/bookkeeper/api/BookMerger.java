@@ -0,0 +1,89 @@
+package com.xdearboy.bookkeeper.api;
+
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.util.BookIdentity;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Accumulates books from several responses in arrival order and drops duplicates.
+ * A book is a duplicate if its id (the API volume id) or one of its {@link BookIdentity}
+ * keys was already seen. Every check is a hash lookup, so merging a batch is
+ * O(batch size); the batch keys are computed before taking the lock.
+ * Thread-safe.
+ */
+public class BookMerger {
+    private final List<Book> books = new ArrayList<>();
+    private final Set<String> ids = new HashSet<>();
+    private final Set<String> isbns = new HashSet<>();
+    private final Set<String> titleAuthors = new HashSet<>();
+
+    /**
+     * Adds the books that are not duplicates of already merged ones (or of each other).
+     * @return the number of books actually added
+     */
+    public int addAll(List<Book> batch) {
+        if (batch == null || batch.isEmpty()) {
+            return 0;
+        }
+        int size = batch.size();
+        String[] isbnKeys = new String[size];
+        String[] titleAuthorKeys = new String[size];
+        for (int i = 0; i < size; i++) {
+            isbnKeys[i] = BookIdentity.isbnKey(batch.get(i));
+            titleAuthorKeys[i] = BookIdentity.titleAuthorKey(batch.get(i));
+        }
+        int added = 0;
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                if (addLocked(batch.get(i), isbnKeys[i], titleAuthorKeys[i])) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    public boolean add(Book book) {
+        String isbnKey = BookIdentity.isbnKey(book);
+        String titleAuthorKey = BookIdentity.titleAuthorKey(book);
+        synchronized (this) {
+            return addLocked(book, isbnKey, titleAuthorKey);
+        }
+    }
+
+    private boolean addLocked(Book book, String isbnKey, String titleAuthorKey) {
+        String id = book.getId();
+        if ((id != null && ids.contains(id))
+                || (isbnKey != null && isbns.contains(isbnKey))
+                || (titleAuthorKey != null && titleAuthors.contains(titleAuthorKey))) {
+            return false;
+        }
+        if (id != null) {
+            ids.add(id);
+        }
+        if (isbnKey != null) {
+            isbns.add(isbnKey);
+        }
+        if (titleAuthorKey != null) {
+            titleAuthors.add(titleAuthorKey);
+        }
+        books.add(book);
+        return true;
+    }
+
+    /** Copy of the merged books in arrival order. */
+    public synchronized List<Book> snapshot() {
+        return new ArrayList<>(books);
+    }
+
+    public synchronized int size() {
+        return books.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return books.isEmpty();
+    }
+}
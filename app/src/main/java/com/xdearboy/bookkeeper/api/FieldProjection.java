@@ -0,0 +1,33 @@
+package com.xdearboy.bookkeeper.api;
+
+/**
+ * Partial-response profiles for the volumes endpoints. Each profile is translated into the
+ * API's {@code fields} selector so that only the volumeInfo fields we actually map into
+ * {@link com.xdearboy.bookkeeper.model.Book} are downloaded.
+ */
+public enum FieldProjection {
+    /** Everything the book list needs; the description is left out. */
+    LIST("title,authors,publisher,publishedDate,pageCount,categories,"
+            + "imageLinks(smallThumbnail,thumbnail),language,industryIdentifiers"),
+    /** The list fields plus the description shown on the details screen. */
+    DETAILS("title,authors,publisher,publishedDate,description,pageCount,categories,"
+            + "imageLinks(smallThumbnail,thumbnail),language,industryIdentifiers");
+
+    private final String volumeSelector;
+    private final String pageSelector;
+
+    FieldProjection(String volumeInfoFields) {
+        volumeSelector = "id,volumeInfo(" + volumeInfoFields + ")";
+        pageSelector = "totalItems,items(" + volumeSelector + ")";
+    }
+
+    /** Selector for endpoints returning a list of volumes. */
+    public String forPage() {
+        return pageSelector;
+    }
+
+    /** Selector for {@code volumes/{volumeId}}. */
+    public String forVolume() {
+        return volumeSelector;
+    }
+}
@@ -0,0 +1,224 @@
+package com.xdearboy.bookkeeper.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * Composition of requests that run side by side. Completion is decided by the futures
+ * themselves, so there are no shared counters to update and the result is delivered
+ * exactly once, whichever thread finishes last.
+ */
+final class Futures {
+    private Futures() {
+    }
+
+    /**
+     * Completes once every future has completed, with the results of those that succeeded,
+     * in the order of the futures. Futures still running at the deadline are cancelled and
+     * left out. Cancelling the returned future cancels all of them.
+     */
+    static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures, long deadlineMs,
+            ScheduledExecutorService scheduler) {
+        CompletableFuture<List<T>> result = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, error) -> succeeded(futures));
+        ScheduledFuture<?> deadline = scheduler.schedule(() -> cancelAll(futures), deadlineMs, TimeUnit.MILLISECONDS);
+        result.whenComplete((books, error) -> {
+            deadline.cancel(false);
+            if (result.isCancelled()) {
+                cancelAll(futures);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Like {@link #allOf(List, long, ScheduledExecutorService)}, but starts the tasks in order,
+     * at most {@code parallelism} at a time; each one is started when an earlier one completes.
+     * Tasks not started by the deadline are never started.
+     */
+    static <T> CompletableFuture<List<T>> allOf(List<Supplier<CompletableFuture<T>>> tasks, int parallelism,
+            long deadlineMs, ScheduledExecutorService scheduler) {
+        List<CompletableFuture<T>> slots = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            slots.add(new CompletableFuture<>());
+        }
+        CompletableFuture<List<T>> result = allOf(slots, deadlineMs, scheduler);
+        AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < Math.min(parallelism, tasks.size()); i++) {
+            startNext(tasks, slots, next);
+        }
+        return result;
+    }
+
+    // Starts the next task whose slot is still open; cancelled slots are skipped
+    private static <T> void startNext(List<Supplier<CompletableFuture<T>>> tasks, List<CompletableFuture<T>> slots,
+            AtomicInteger next) {
+        int index;
+        while ((index = next.getAndIncrement()) < tasks.size()) {
+            CompletableFuture<T> slot = slots.get(index);
+            if (slot.isDone()) {
+                continue;
+            }
+            CompletableFuture<T> task = tasks.get(index).get();
+            slot.whenComplete((value, error) -> {
+                if (slot.isCancelled()) {
+                    task.cancel(false);
+                }
+            });
+            task.whenComplete((value, error) -> {
+                if (slot.isCancelled()) {
+                    // Cancelled by the deadline or by the caller: the remaining slots are too
+                    return;
+                }
+                if (error == null) {
+                    slot.complete(value);
+                } else {
+                    slot.completeExceptionally(error);
+                }
+                startNext(tasks, slots, next);
+            });
+            return;
+        }
+    }
+
+    /**
+     * Any-of with hedging and a deadline. The first task starts at once; the others start
+     * together once it completes without ending the search, or once it has run for
+     * {@code hedgeDelayMs} (at once if zero, never on time alone if negative).
+     * {@code enough} sees every successful result with the index of its task, possibly on
+     * several threads at once, so it may accumulate them; returning true ends the search.
+     *
+     * @return completes with true when {@code enough} ended the search, with false once every
+     *         task has completed without that, or exceptionally with a {@link TimeoutException}
+     *         when {@code deadlineMs} passes first. Tasks still running are then cancelled, as
+     *         they are when the returned future is cancelled.
+     */
+    static <T> CompletableFuture<Boolean> anyOf(List<Supplier<CompletableFuture<T>>> tasks,
+            BiPredicate<Integer, T> enough, long hedgeDelayMs, long deadlineMs, ScheduledExecutorService scheduler) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        if (tasks.isEmpty()) {
+            result.complete(false);
+            return result;
+        }
+        List<CompletableFuture<T>> started = new ArrayList<>(tasks.size());
+        AtomicInteger remaining = new AtomicInteger(tasks.size());
+        AtomicBoolean othersStarted = new AtomicBoolean(tasks.size() == 1);
+        Runnable startOthers = () -> {
+            if (othersStarted.compareAndSet(false, true)) {
+                for (int i = 1; i < tasks.size(); i++) {
+                    startTask(tasks, i, enough, result, started, remaining, null);
+                }
+            }
+        };
+        ScheduledFuture<?> deadline = scheduler.schedule(() -> result.completeExceptionally(new TimeoutException()),
+                deadlineMs, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> hedge = hedgeDelayMs > 0 && tasks.size() > 1
+                ? scheduler.schedule(startOthers, hedgeDelayMs, TimeUnit.MILLISECONDS) : null;
+        result.whenComplete((ended, error) -> {
+            deadline.cancel(false);
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            List<CompletableFuture<T>> running;
+            synchronized (started) {
+                running = new ArrayList<>(started);
+            }
+            cancelAll(running);
+        });
+        startTask(tasks, 0, enough, result, started, remaining, startOthers);
+        if (hedgeDelayMs == 0) {
+            startOthers.run();
+        }
+        return result;
+    }
+
+    // Starts one task of anyOf; onInconclusive runs when it completes without ending the search
+    private static <T> void startTask(List<Supplier<CompletableFuture<T>>> tasks, int index,
+            BiPredicate<Integer, T> enough, CompletableFuture<Boolean> result, List<CompletableFuture<T>> started,
+            AtomicInteger remaining, Runnable onInconclusive) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> task = tasks.get(index).get();
+        synchronized (started) {
+            started.add(task);
+        }
+        if (result.isDone()) {
+            // Ended while the task was starting; the cancellation above may have missed it
+            task.cancel(false);
+            return;
+        }
+        task.whenComplete((value, error) -> {
+            if (error == null && enough.test(index, value)) {
+                result.complete(true);
+                return;
+            }
+            if (onInconclusive != null) {
+                onInconclusive.run();
+            }
+            if (remaining.decrementAndGet() == 0) {
+                result.complete(false);
+            }
+        });
+    }
+
+    /**
+     * Runs the call. The future completes with the body of a successful response, or
+     * exceptionally with an {@link HttpException} or the network error; cancelling it
+     * cancels the call.
+     */
+    static <T> CompletableFuture<T> ofCall(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback<T>() {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                if (response.isSuccessful()) {
+                    future.complete(response.body());
+                } else {
+                    future.completeExceptionally(new HttpException(response));
+                }
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    // All futures are done when this is called
+    private static <T> List<T> succeeded(List<CompletableFuture<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            if (!future.isCompletedExceptionally()) {
+                results.add(future.join());
+            }
+        }
+        return results;
+    }
+
+    private static void cancelAll(List<? extends CompletableFuture<?>> futures) {
+        for (CompletableFuture<?> future : futures) {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Runs a primary search call with fallback variants hedged behind it. The fallbacks are
+ * sent as soon as the primary comes back sparse, or speculatively once the primary has
+ * taken longer than a typical round trip, whichever happens first. Responses are merged
+ * as they arrive. A hard deadline of the hedge delay plus {@code deadlineMs} runs from the
+ * start of every search, with or without fallbacks; when it expires the search completes
+ * with whatever has been merged and the remaining calls are cancelled. A search therefore
+ * never takes longer than that. Launching, hedging and the deadline are left to
+ * {@link Futures#anyOf}.
+ */
+class HedgedSearch {
+    private static final String TAG = "HedgedSearch";
+
+    interface Listener {
+        /** Called with everything merged so far after a response added books. */
+        void onProgress(List<Book> merged);
+
+        /**
+         * Called exactly once.
+         * @param outcomes how the calls ended, for remembering a search that found nothing
+         */
+        void onComplete(List<Book> merged, NegativeCache.Tally outcomes);
+    }
+
+    /**
+     * Moving average of primary round trips, shared between searches. The hedge fires once
+     * the primary is slower than usual; the delay is clamped so a few slow responses can
+     * neither disable hedging nor make it fire on every search.
+     */
+    static final class LatencyEstimate {
+        private static final long INITIAL_MS = 400;
+        private static final long MIN_DELAY_MS = 150;
+        private static final long MAX_DELAY_MS = 800;
+
+        private long averageMs = INITIAL_MS;
+
+        synchronized void record(long elapsedMs) {
+            averageMs = (averageMs * 4 + elapsedMs) / 5;
+        }
+
+        synchronized long hedgeDelayMs() {
+            return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, averageMs));
+        }
+    }
+
+    private final List<Call<VolumePage>> calls;
+    private final int sufficientResults;
+    private final boolean parallel;
+    private final long deadlineMs;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyEstimate latency;
+    private final Listener listener;
+    private final BookMerger merger = new BookMerger();
+    private final NegativeCache.Tally outcomes = new NegativeCache.Tally();
+    private volatile boolean fallbacksSent;
+    private long startedAt;
+
+    /**
+     * @param calls             the primary call first, then fallbacks in priority order
+     * @param sufficientResults a primary returning at least this many books needs no fallbacks
+     * @param parallel          send the fallbacks together with the primary instead of hedging
+     */
+    HedgedSearch(List<Call<VolumePage>> calls, int sufficientResults, boolean parallel, long deadlineMs,
+            ScheduledExecutorService scheduler, LatencyEstimate latency, Listener listener) {
+        this.calls = calls;
+        this.sufficientResults = sufficientResults;
+        this.parallel = parallel;
+        this.deadlineMs = deadlineMs;
+        this.scheduler = scheduler;
+        this.latency = latency;
+        this.listener = listener;
+    }
+
+    void start() {
+        startedAt = SystemClock.elapsedRealtime();
+        long hedgeDelayMs = latency.hedgeDelayMs();
+        List<Supplier<CompletableFuture<List<Book>>>> tasks = new ArrayList<>(calls.size());
+        for (int i = 0; i < calls.size(); i++) {
+            int index = i;
+            tasks.add(() -> {
+                if (index > 0) {
+                    fallbacksSent = true;
+                }
+                return send(calls.get(index), outcomes, "запрос " + index);
+            });
+        }
+        Futures.anyOf(tasks, this::onResult, parallel ? 0 : hedgeDelayMs, hedgeDelayMs + deadlineMs, scheduler)
+                .whenComplete((ended, error) -> {
+                    if (error instanceof TimeoutException) {
+                        Log.w(TAG, "Истёк срок ожидания поиска, найдено книг: " + merger.size());
+                        // Calls cut off here might have found books, so an empty result is not remembered as EMPTY
+                        outcomes.failure(NegativeCache.Outcome.TIMEOUT);
+                    }
+                    listener.onComplete(merger.snapshot(), outcomes);
+                });
+    }
+
+    /**
+     * Sends a search call. The future completes with the books, or with null once the
+     * failure has been recorded in the tally; cancelling it cancels the call.
+     */
+    static CompletableFuture<List<Book>> send(Call<VolumePage> call, NegativeCache.Tally outcomes, String label) {
+        CompletableFuture<List<Book>> future = new CompletableFuture<>();
+        future.whenComplete((books, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback<VolumePage>() {
+            @Override
+            public void onResponse(Call<VolumePage> call, Response<VolumePage> response) {
+                if (response.isSuccessful() && response.body() != null) {
+                    outcomes.success();
+                    future.complete(response.body().getBooks());
+                    return;
+                }
+                Log.e(TAG, "Ошибка API, " + label + ": " + response.code());
+                outcomes.failure(NegativeCache.classify(response.code()));
+                future.complete(null);
+            }
+
+            @Override
+            public void onFailure(Call<VolumePage> call, Throwable t) {
+                if (!call.isCanceled()) {
+                    Log.e(TAG, "Ошибка сети, " + label + ": " + t.getMessage());
+                    outcomes.failure(NegativeCache.classify(t));
+                }
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    // Merges a response; true when the search needs nothing more
+    private boolean onResult(int index, List<Book> books) {
+        boolean added = books != null && merger.addAll(books) > 0;
+        boolean enough = false;
+        if (index == 0) {
+            if (books != null) {
+                latency.record(SystemClock.elapsedRealtime() - startedAt);
+            }
+            // Without books and before any fallback, the API rejected the query itself;
+            // variants would only spend more quota
+            enough = merger.size() >= sufficientResults || (books == null && !fallbacksSent);
+        }
+        if (!enough && added) {
+            listener.onProgress(merger.snapshot());
+        }
+        return enough;
+    }
+}
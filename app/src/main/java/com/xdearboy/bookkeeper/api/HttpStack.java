@@ -0,0 +1,130 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.xdearboy.bookkeeper.util.Constants;
+import com.xdearboy.bookkeeper.util.NetworkUtils;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * The process-wide HTTP stack. Every API client uses the same connection pool and dispatcher,
+ * so TLS sessions and HTTP/2 connections to Google Books are reused across clients. Clients
+ * that need their own settings derive them with {@link #newClientBuilder()}.
+ */
+public final class HttpStack {
+    private static final String TAG = "HttpStack";
+
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 32;
+    // Google Books is a single host; over HTTP/2 these share one connection
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+
+    private static volatile HttpStack INSTANCE;
+
+    public static HttpStack getInstance() {
+        if (INSTANCE == null) {
+            synchronized (HttpStack.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new HttpStack();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Without interceptors: the base of derived clients
+    private final OkHttpClient baseClient;
+    private final OkHttpClient apiClient;
+    // Recorded by NetworkMetrics, but not counted against the quota
+    private final OkHttpClient warmUpClient;
+    private final Retrofit retrofit;
+    private final AtomicBoolean warmedUp = new AtomicBoolean();
+
+    private HttpStack() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        baseClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(Constants.NETWORK_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(Constants.NETWORK_TIMEOUT, TimeUnit.SECONDS)
+                .writeTimeout(Constants.NETWORK_TIMEOUT, TimeUnit.SECONDS)
+                .build();
+        NetworkMetrics metrics = NetworkMetrics.getInstance();
+        warmUpClient = baseClient.newBuilder()
+                .addInterceptor(metrics)
+                .eventListenerFactory(metrics.eventListenerFactory())
+                .build();
+        apiClient = baseClient.newBuilder()
+                .addInterceptor(QuotaGuard.getInstance())
+                .addInterceptor(metrics)
+                .eventListenerFactory(metrics.eventListenerFactory())
+                .build();
+        retrofit = new Retrofit.Builder()
+                .baseUrl(Constants.GOOGLE_BOOKS_BASE_URL)
+                .client(apiClient)
+                .addConverterFactory(VolumeConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+    }
+
+    /** The client for Google Books requests, with the {@link QuotaGuard} and {@link NetworkMetrics}. */
+    public OkHttpClient getClient() {
+        return apiClient;
+    }
+
+    public Retrofit getRetrofit() {
+        return retrofit;
+    }
+
+    /** A builder sharing the connection pool and dispatcher, without any interceptors. */
+    public OkHttpClient.Builder newClientBuilder() {
+        return baseClient.newBuilder();
+    }
+
+    /**
+     * Opens a connection to {@link Constants#GOOGLE_BOOKS_BASE_URL} in the background (DNS,
+     * TCP and TLS) and leaves it in the pool, so the first search skips the handshake.
+     * Does nothing after the first call or without a network. Does not count against the quota.
+     */
+    public void warmUp(Context context) {
+        if (!NetworkUtils.isNetworkAvailable(context) || !warmedUp.compareAndSet(false, true)) {
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(Constants.GOOGLE_BOOKS_BASE_URL)
+                .head()
+                .build();
+        warmUpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                // Any status will do, the connection is what we came for
+                response.close();
+                Log.d(TAG, "Соединение с Google Books установлено заранее: " + response.protocol());
+            }
+
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                warmedUp.set(false);
+                Log.w(TAG, "Не удалось заранее установить соединение: " + e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.util.Log;
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of searches that are currently on the network, keyed by cache key.
+ * The first caller for a key becomes the leader and performs the request;
+ * later callers with the same key attach to it and receive the same result.
+ * When every caller has left, the request is abandoned and its calls are cancelled.
+ */
+class InFlightRequests {
+    private static final String TAG = "InFlightRequests";
+
+    private static final class Entry {
+        final List<BookApiClient.OnSearchResultCallback> waiters = new ArrayList<>();
+        final List<Runnable> cancellers = new ArrayList<>();
+    }
+
+    private final Map<String, Entry> pending = new HashMap<>();
+
+    /**
+     * Attaches the callback to the pending request for the key.
+     * @return true if the caller is the leader and must start the request itself
+     */
+    synchronized boolean join(String key, BookApiClient.OnSearchResultCallback callback) {
+        Entry entry = pending.get(key);
+        if (entry != null) {
+            entry.waiters.add(callback);
+            return false;
+        }
+        entry = new Entry();
+        entry.waiters.add(callback);
+        pending.put(key, entry);
+        return true;
+    }
+
+    /**
+     * Registers how to cancel the network work of the request, typically {@code call::cancel}.
+     * @return false if the request has already been abandoned; the canceller is not run and
+     *         the work should not be started
+     */
+    synchronized boolean attach(String key, Runnable canceller) {
+        Entry entry = pending.get(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancellers.add(canceller);
+        return true;
+    }
+
+    /**
+     * Detaches the callback. If it was the last waiter, the request is abandoned and the
+     * attached cancellers run.
+     */
+    void leave(String key, BookApiClient.OnSearchResultCallback callback) {
+        List<Runnable> cancellers;
+        synchronized (this) {
+            Entry entry = pending.get(key);
+            if (entry == null || !entry.waiters.remove(callback) || !entry.waiters.isEmpty()) {
+                return;
+            }
+            pending.remove(key);
+            cancellers = entry.cancellers;
+        }
+        Log.d(TAG, "Запрос больше никому не нужен, отменяем: " + key);
+        for (Runnable canceller : cancellers) {
+            canceller.run();
+        }
+    }
+
+    void complete(String key, List<Book> books) {
+        for (BookApiClient.OnSearchResultCallback waiter : drain(key)) {
+            waiter.onSuccess(books);
+        }
+    }
+
+    void progress(String key, List<Book> books) {
+        List<BookApiClient.OnSearchResultCallback> waiters;
+        synchronized (this) {
+            Entry entry = pending.get(key);
+            if (entry == null) {
+                return;
+            }
+            waiters = new ArrayList<>(entry.waiters);
+        }
+        for (BookApiClient.OnSearchResultCallback waiter : waiters) {
+            // Waiters that stream also receive partial results while the search is running
+            if (waiter instanceof BookApiClient.StreamingSearchCallback) {
+                ((BookApiClient.StreamingSearchCallback) waiter).onPartial(books);
+            }
+        }
+    }
+
+    void fail(String key, String message) {
+        for (BookApiClient.OnSearchResultCallback waiter : drain(key)) {
+            waiter.onError(message);
+        }
+    }
+
+    private synchronized List<BookApiClient.OnSearchResultCallback> drain(String key) {
+        Entry entry = pending.remove(key);
+        return entry != null ? entry.waiters : new ArrayList<>();
+    }
+}
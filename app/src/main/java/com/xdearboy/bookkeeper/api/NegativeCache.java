@@ -0,0 +1,151 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers searches that found nothing or failed, so that repeating one within a short
+ * time is answered at once instead of sending its requests again. Kept apart from
+ * {@link SearchCache}: an entry holds only the {@link Outcome}, and each outcome expires
+ * on its own schedule. Keyed like {@link SearchCache}, by the base of a {@link SearchKey}.
+ */
+class NegativeCache {
+    private static final int MAX_ENTRIES = 200;
+
+    enum Outcome {
+        /** The API answered, but with no books. */
+        EMPTY(10 * 60 * 1000L),
+        /** 4xx other than 429: the query itself is rejected and will be again. */
+        CLIENT_ERROR(5 * 60 * 1000L),
+        /** 5xx: usually passes quickly. */
+        SERVER_ERROR(30 * 1000L),
+        /** No response in time. */
+        TIMEOUT(15 * 1000L);
+
+        final long ttlMs;
+
+        Outcome(long ttlMs) {
+            this.ttlMs = ttlMs;
+        }
+    }
+
+    /**
+     * Collects the outcomes of the requests made for one search.
+     * Guarded by itself, since the requests complete on different threads.
+     */
+    static final class Tally {
+        private boolean anySucceeded;
+        private boolean anyTimedOut;
+        private Outcome lastFailure;
+
+        synchronized void success() {
+            anySucceeded = true;
+        }
+
+        synchronized void failure(@Nullable Outcome outcome) {
+            if (outcome != null) {
+                lastFailure = outcome;
+            }
+            if (outcome == Outcome.TIMEOUT) {
+                anyTimedOut = true;
+            }
+        }
+
+        /**
+         * What a search that ended without books should be remembered as, or null if nothing.
+         * A search with a request that timed out is not known to be empty, even if another
+         * request answered with no books.
+         */
+        @Nullable
+        synchronized Outcome outcome() {
+            if (anyTimedOut) {
+                return Outcome.TIMEOUT;
+            }
+            return anySucceeded ? Outcome.EMPTY : lastFailure;
+        }
+    }
+
+    private static final class Entry {
+        final Outcome outcome;
+        final long expiresAt;
+
+        Entry(Outcome outcome, long expiresAt) {
+            this.outcome = outcome;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final NetworkMetrics metrics = NetworkMetrics.getInstance();
+    private final LongSupplier clock;
+    // Guarded by this; in access order, so the least recently used entry is dropped first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    NegativeCache() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    /** @param clock monotonic time in milliseconds */
+    NegativeCache(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return the class of the HTTP status, or null for statuses not worth remembering:
+     *         429 is left to {@link QuotaGuard}
+     */
+    @Nullable
+    static Outcome classify(int code) {
+        if (code == 429) {
+            return null;
+        }
+        if (code >= 400 && code < 500) {
+            return Outcome.CLIENT_ERROR;
+        }
+        if (code >= 500 && code < 600) {
+            return Outcome.SERVER_ERROR;
+        }
+        return null;
+    }
+
+    /**
+     * @return {@link Outcome#TIMEOUT} for timeouts, null otherwise: a lost connection says
+     *         nothing about the query, and quota errors are left to {@link QuotaGuard}
+     */
+    @Nullable
+    static Outcome classify(Throwable error) {
+        if (error instanceof QuotaGuard.QuotaExceededException) {
+            return null;
+        }
+        return error instanceof InterruptedIOException ? Outcome.TIMEOUT : null;
+    }
+
+    synchronized void record(String key, Outcome outcome) {
+        entries.put(SearchKey.baseOf(key), new Entry(outcome, clock.getAsLong() + outcome.ttlMs));
+    }
+
+    /** @return the remembered outcome of the key, or null if there is none or it expired */
+    @Nullable
+    synchronized Outcome get(String key) {
+        String base = SearchKey.baseOf(key);
+        Entry entry = entries.get(base);
+        if (entry != null && clock.getAsLong() >= entry.expiresAt) {
+            entries.remove(base);
+            entry = null;
+        }
+        metrics.recordCacheLookup(NetworkMetrics.CacheTier.NEGATIVE, entry != null, false);
+        return entry != null ? entry.outcome : null;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
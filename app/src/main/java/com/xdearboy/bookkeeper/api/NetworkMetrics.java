@@ -0,0 +1,387 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import retrofit2.Invocation;
+
+/**
+ * Latency, traffic and cache statistics for Google Books calls, grouped by
+ * {@link BookApiService} method. The interceptor counts status codes; the
+ * {@link #eventListenerFactory() event listener} times the DNS, connect, time-to-first-byte
+ * and total phases and counts bytes. {@link SearchCache} reports its hits and misses.
+ * Everything is kept in memory since process start; see {@link #dump()}.
+ */
+public class NetworkMetrics implements Interceptor {
+    private static final String TAG = "NetworkMetrics";
+    // Calls that were not made through BookApiService, e.g. the connection warm-up
+    private static final String OTHER_ENDPOINT = "other";
+
+    public enum CacheTier {
+        MEMORY,
+        PERSISTENT,
+        // Searches remembered as empty or failed, see NegativeCache
+        NEGATIVE
+    }
+
+    private static volatile NetworkMetrics INSTANCE;
+
+    public static NetworkMetrics getInstance() {
+        if (INSTANCE == null) {
+            synchronized (NetworkMetrics.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new NetworkMetrics();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /** Latency histogram with fixed buckets; percentiles are reported as bucket upper bounds. */
+    public static final class Histogram {
+        private static final long[] BOUNDS_MS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumMs = new AtomicLong();
+        private final AtomicLong maxMs = new AtomicLong();
+
+        void record(long ms) {
+            int bucket = 0;
+            while (bucket < BOUNDS_MS.length && ms > BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sumMs.addAndGet(ms);
+            maxMs.accumulateAndGet(ms, Math::max);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMeanMs() {
+            long n = count.get();
+            return n == 0 ? 0 : sumMs.get() / n;
+        }
+
+        public long getMaxMs() {
+            return maxMs.get();
+        }
+
+        /** @param quantile between 0 and 1, e.g. 0.95; 0 when nothing was recorded */
+        public long getPercentileMs(double quantile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_MS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(BOUNDS_MS[i], getMaxMs());
+                }
+            }
+            return getMaxMs();
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d mean=%dms p50=%dms p95=%dms p99=%dms max=%dms",
+                    getCount(), getMeanMs(), getPercentileMs(0.5), getPercentileMs(0.95),
+                    getPercentileMs(0.99), getMaxMs());
+        }
+    }
+
+    /** Statistics of one BookApiService method. */
+    public static final class EndpointStats {
+        private final Histogram dns = new Histogram();
+        private final Histogram connect = new Histogram();
+        private final Histogram timeToFirstByte = new Histogram();
+        private final Histogram total = new Histogram();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final Map<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<>();
+
+        public Histogram getDns() {
+            return dns;
+        }
+
+        public Histogram getConnect() {
+            return connect;
+        }
+
+        public Histogram getTimeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        /** From the start of the call to its end, including quota waits and retries. */
+        public Histogram getTotal() {
+            return total;
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        /** Calls that ended without a response: network errors, cancellations, quota blocks. */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public Map<Integer, Long> getStatusCodes() {
+            Map<Integer, Long> result = new TreeMap<>();
+            for (Map.Entry<Integer, AtomicLong> entry : statusCodes.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().get());
+            }
+            return result;
+        }
+    }
+
+    /** Hits and misses of one search cache tier; size figures apply to the memory tier. */
+    public static final class CacheStats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong staleHits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private volatile long residentBytes;
+        private volatile long maxBytes;
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        /** Hits that were served but had to be revalidated; included in {@link #getHits()}. */
+        public long getStaleHits() {
+            return staleHits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public double getHitRatio() {
+            long hitCount = hits.get();
+            long lookups = hitCount + misses.get();
+            return lookups == 0 ? 0 : (double) hitCount / lookups;
+        }
+
+        /** Entries dropped to stay within the byte budget or to give memory back to the system. */
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        /** Estimated bytes currently held. */
+        public long getResidentBytes() {
+            return residentBytes;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+    }
+
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+    private final Map<CacheTier, CacheStats> cacheTiers = new ConcurrentHashMap<>();
+
+    private NetworkMetrics() {
+        for (CacheTier tier : CacheTier.values()) {
+            cacheTiers.put(tier, new CacheStats());
+        }
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        statsFor(chain.request()).statusCodes
+                .computeIfAbsent(response.code(), code -> new AtomicLong())
+                .incrementAndGet();
+        return response;
+    }
+
+    public EventListener.Factory eventListenerFactory() {
+        return call -> new CallTimer(statsFor(call.request()));
+    }
+
+    void recordCacheLookup(CacheTier tier, boolean hit, boolean stale) {
+        CacheStats stats = cacheTiers.get(tier);
+        if (!hit) {
+            stats.misses.incrementAndGet();
+            return;
+        }
+        stats.hits.incrementAndGet();
+        if (stale) {
+            stats.staleHits.incrementAndGet();
+        }
+    }
+
+    void recordCacheEviction(CacheTier tier) {
+        cacheTiers.get(tier).evictions.incrementAndGet();
+    }
+
+    void recordCacheMemory(CacheTier tier, long residentBytes, long maxBytes) {
+        CacheStats stats = cacheTiers.get(tier);
+        stats.residentBytes = residentBytes;
+        stats.maxBytes = maxBytes;
+    }
+
+    /** Statistics per BookApiService method name, e.g. "searchBooks". */
+    public Map<String, EndpointStats> getEndpoints() {
+        return new TreeMap<>(endpoints);
+    }
+
+    public CacheStats getCacheStats(CacheTier tier) {
+        return cacheTiers.get(tier);
+    }
+
+    /** Human-readable summary of everything recorded, for logs and bug reports. */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, EndpointStats> entry : getEndpoints().entrySet()) {
+            EndpointStats stats = entry.getValue();
+            sb.append(entry.getKey()).append('\n')
+                    .append("  total: ").append(stats.total).append('\n')
+                    .append("  ttfb:  ").append(stats.timeToFirstByte).append('\n')
+                    .append("  conn:  ").append(stats.connect).append('\n')
+                    .append("  dns:   ").append(stats.dns).append('\n')
+                    .append("  bytes: out=").append(stats.getBytesSent())
+                    .append(" in=").append(stats.getBytesReceived()).append('\n')
+                    .append("  status: ").append(stats.getStatusCodes())
+                    .append(" failures=").append(stats.getFailures()).append('\n');
+        }
+        for (CacheTier tier : CacheTier.values()) {
+            CacheStats stats = cacheTiers.get(tier);
+            sb.append(String.format(Locale.US, "cache %s: hits=%d (stale %d) misses=%d ratio=%.2f",
+                    tier.name().toLowerCase(Locale.ROOT), stats.getHits(), stats.getStaleHits(),
+                    stats.getMisses(), stats.getHitRatio()));
+            if (stats.getMaxBytes() > 0) {
+                sb.append(String.format(Locale.US, " resident=%d/%d bytes evictions=%d",
+                        stats.getResidentBytes(), stats.getMaxBytes(), stats.getEvictions()));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public void logDump() {
+        Log.d(TAG, "Сетевая статистика:\n" + dump());
+    }
+
+    private EndpointStats statsFor(Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        String endpoint = invocation != null ? invocation.method().getName() : OTHER_ENDPOINT;
+        return endpoints.computeIfAbsent(endpoint, name -> new EndpointStats());
+    }
+
+    // One per call; OkHttp delivers the events of a call sequentially
+    private static final class CallTimer extends EventListener {
+        private final EndpointStats stats;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long requestStart;
+
+        CallTimer(EndpointStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void callStart(@NonNull Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(@NonNull Call call, @NonNull String domainName,
+                           @NonNull List<InetAddress> inetAddressList) {
+            stats.dns.record(elapsedMs(dnsStart));
+        }
+
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                                 @NonNull Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                               @NonNull Proxy proxy, Protocol protocol) {
+            stats.connect.record(elapsedMs(connectStart));
+        }
+
+        @Override
+        public void requestHeadersStart(@NonNull Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersEnd(@NonNull Call call, @NonNull Request request) {
+            stats.bytesSent.addAndGet(request.headers().byteCount());
+        }
+
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount) {
+            stats.bytesSent.addAndGet(byteCount);
+        }
+
+        @Override
+        public void responseHeadersStart(@NonNull Call call) {
+            stats.timeToFirstByte.record(elapsedMs(requestStart));
+        }
+
+        @Override
+        public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+            stats.bytesReceived.addAndGet(response.headers().byteCount());
+        }
+
+        @Override
+        public void responseBodyEnd(@NonNull Call call, long byteCount) {
+            stats.bytesReceived.addAndGet(byteCount);
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call) {
+            stats.total.record(elapsedMs(callStart));
+        }
+
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+            stats.total.record(elapsedMs(callStart));
+            stats.failures.incrementAndGet();
+        }
+
+        private static long elapsedMs(long startNanos) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+    }
+}
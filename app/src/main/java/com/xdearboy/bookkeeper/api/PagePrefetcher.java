@@ -0,0 +1,96 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import com.xdearboy.bookkeeper.util.NetworkUtils;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import retrofit2.Call;
+
+/**
+ * Bookkeeping for speculative page loads in {@link BookApiClient#loadBooksPage}: which query
+ * is being paged, which prefetches are on the wire, and how far ahead to load. Prefetches of
+ * a query are cancelled as soon as another query is paged.
+ */
+class PagePrefetcher {
+    /** Page loads slower than this are worth prefetching two pages ahead even off Wi-Fi. */
+    private static final long SLOW_PAGE_MS = 800;
+
+    @Nullable
+    private final Context context;
+
+    // Guarded by this
+    private String currentQuery;
+    private final Map<String, Call<VolumePage>> calls = new HashMap<>();
+    private long averagePageMs;
+
+    PagePrefetcher(@Nullable Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Makes the query current. Prefetches of the previous query are cancelled.
+     */
+    void onPageRequested(String query) {
+        List<Call<VolumePage>> stale;
+        synchronized (this) {
+            if (query.equals(currentQuery)) {
+                return;
+            }
+            currentQuery = query;
+            stale = new ArrayList<>(calls.values());
+            calls.clear();
+        }
+        for (Call<VolumePage> call : stale) {
+            call.cancel();
+        }
+    }
+
+    synchronized boolean isCurrent(String query) {
+        return query.equals(currentQuery);
+    }
+
+    /**
+     * Tracks a prefetch call so it can be cancelled.
+     * @return false if the query is no longer current; the call was cancelled
+     */
+    boolean track(String query, String cacheKey, Call<VolumePage> call) {
+        synchronized (this) {
+            if (query.equals(currentQuery)) {
+                calls.put(cacheKey, call);
+                return true;
+            }
+        }
+        call.cancel();
+        return false;
+    }
+
+    synchronized void untrack(String cacheKey) {
+        calls.remove(cacheKey);
+    }
+
+    synchronized void recordPageLatency(long elapsedMs) {
+        averagePageMs = averagePageMs == 0 ? elapsedMs : (averagePageMs * 3 + elapsedMs) / 4;
+    }
+
+    /**
+     * Two pages ahead on Wi-Fi or on a slow mobile connection, one page on a fast mobile
+     * connection, none offline.
+     */
+    int depth() {
+        if (context == null) {
+            return 1;
+        }
+        if (!NetworkUtils.isNetworkAvailable(context)) {
+            return 0;
+        }
+        if (NetworkUtils.isWifiConnected(context)) {
+            return 2;
+        }
+        synchronized (this) {
+            return averagePageMs > SLOW_PAGE_MS ? 2 : 1;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.xdearboy.bookkeeper.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Plans the requests behind one search: the query itself first, then the variants that
+ * may add results it does not return. Variants that would send the same words as an
+ * earlier request are dropped, every request gets a result budget, and the plan is
+ * ordered by priority so the caller can stop as soon as the page is full.
+ */
+class QueryPlanner {
+    /** The Google Books API returns at most 40 volumes per request. */
+    static final int MAX_RESULTS_PER_REQUEST = 40;
+
+    static final int PRIORITY_PRIMARY = 0;
+    static final int PRIORITY_CATEGORY = 1;
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    static final class PlannedQuery {
+        final String text;
+        final int priority;
+        final int budget;
+
+        PlannedQuery(String text, int priority, int budget) {
+            this.text = text;
+            this.priority = priority;
+            this.budget = budget;
+        }
+
+        @Override
+        public String toString() {
+            return "'" + text + "' p" + priority + " n" + budget;
+        }
+    }
+
+    /**
+     * @return the requests to make in order; the first one is always the query itself.
+     *         Empty for a blank query.
+     */
+    List<PlannedQuery> plan(String query, int maxResults) {
+        String primary = query == null ? "" : WHITESPACE.matcher(query.trim()).replaceAll(" ");
+        if (primary.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int budget = Math.max(1, Math.min(maxResults, MAX_RESULTS_PER_REQUEST));
+        List<PlannedQuery> candidates = new ArrayList<>();
+        candidates.add(new PlannedQuery(primary, PRIORITY_PRIMARY, budget));
+        if (primary.length() > 3) {
+            String category = determineCategory(primary);
+            if (category != null) {
+                // A variant only helps once the query alone could not fill the page, and the
+                // API charges per request rather than per result, so it asks for a full page
+                candidates.add(new PlannedQuery(primary + " " + category, PRIORITY_CATEGORY, budget));
+            }
+        }
+        List<PlannedQuery> plan = new ArrayList<>();
+        Set<Set<String>> seenTerms = new HashSet<>();
+        for (PlannedQuery candidate : candidates) {
+            if (seenTerms.add(terms(candidate.text))) {
+                plan.add(candidate);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * The search API ignores case and word order, so two queries with the same set of
+     * words return the same volumes.
+     */
+    static Set<String> terms(String query) {
+        return new TreeSet<>(Arrays.asList(WHITESPACE.split(query.trim().toLowerCase(Locale.ROOT))));
+    }
+
+    static String determineCategory(String query) {
+        String lowerQuery = query.toLowerCase();
+        if (lowerQuery.contains("фантаст") || lowerQuery.contains("sci-fi") || lowerQuery.contains("научн")) {
+            return "фантастика";
+        } else if (lowerQuery.contains("детектив") || lowerQuery.contains("крими") || lowerQuery.contains("загадк")) {
+            return "детектив";
+        } else if (lowerQuery.contains("роман") || lowerQuery.contains("любов") || lowerQuery.contains("отношен")) {
+            return "роман";
+        } else if (lowerQuery.contains("истор") || lowerQuery.contains("войн") || lowerQuery.contains("древн")) {
+            return "история";
+        } else if (lowerQuery.contains("биограф") || lowerQuery.contains("мемуар")
+                || lowerQuery.contains("автобиограф")) {
+            return "биография";
+        } else if (lowerQuery.contains("програм") || lowerQuery.contains("код") || lowerQuery.contains("компьютер")) {
+            return "программирование";
+        } else if (lowerQuery.contains("психолог") || lowerQuery.contains("самопомощ")
+                || lowerQuery.contains("развит")) {
+            return "психология";
+        } else if (lowerQuery.contains("филос") || lowerQuery.contains("мысл") || lowerQuery.contains("бытие")) {
+            return "философия";
+        } else if (lowerQuery.contains("наук") || lowerQuery.contains("физик") || lowerQuery.contains("биолог")) {
+            return "наука";
+        } else if (lowerQuery.contains("искусств") || lowerQuery.contains("живопис") || lowerQuery.contains("музык")) {
+            return "искусство";
+        }
+        return null;
+    }
+}
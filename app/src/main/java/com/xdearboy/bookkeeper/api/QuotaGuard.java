@@ -0,0 +1,277 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Keeps the app inside the Google Books quota. Shared by every {@link BookApiService}
+ * call in the process:
+ * <ul>
+ *   <li>a token bucket spaces requests out before they reach the network;</li>
+ *   <li>429/503 and quota 403 responses are retried with exponential backoff and jitter,
+ *       honouring Retry-After;</li>
+ *   <li>repeated quota errors (or an exhausted daily limit) open a circuit breaker. While it
+ *       is open requests fail immediately with {@link QuotaExceededException} and callers are
+ *       expected to answer from the cache. When the open period is over a single probe request
+ *       is let through; its outcome closes the breaker or reopens it for twice as long.</li>
+ * </ul>
+ * The guard runs on OkHttp dispatcher threads, and {@link okhttp3.Call#cancel()} does not
+ * interrupt a sleep there, so it waits at most {@link #MAX_WAIT_MS} for a token or before a
+ * retry. A longer token wait fails with {@link QuotaExceededException}; a longer backoff or
+ * Retry-After returns the throttled response to the caller.
+ */
+public class QuotaGuard implements Interceptor {
+    private static final String TAG = "QuotaGuard";
+
+    private static final double BUCKET_CAPACITY = 8;
+    private static final double TOKENS_PER_SECOND = 2;
+    // Longest wait on the calling thread, for a token or before a retry
+    private static final long MAX_WAIT_MS = 250;
+
+    private static final int MAX_RETRIES = 2;
+    private static final long BASE_BACKOFF_MS = 100;
+
+    private static final int FAILURES_TO_OPEN = 3;
+    private static final long MIN_OPEN_MS = 30 * 1000L;
+    private static final long MAX_OPEN_MS = 30 * 60 * 1000L;
+    private static final long DAILY_LIMIT_OPEN_MS = 60 * 60 * 1000L;
+
+    public enum State {
+        /** Requests go to the network. */
+        AVAILABLE,
+        /** The quota is exhausted; results come from the cache and the local database. */
+        LIMITED,
+        /** The open period is over and one request is checking whether the quota is back. */
+        PROBING
+    }
+
+    /** Thrown instead of sending a request while the quota is exhausted. */
+    public static class QuotaExceededException extends IOException {
+        public QuotaExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private static volatile QuotaGuard INSTANCE;
+
+    public static QuotaGuard getInstance() {
+        if (INSTANCE == null) {
+            synchronized (QuotaGuard.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new QuotaGuard();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final MutableLiveData<State> stateLiveData = new MutableLiveData<>(State.AVAILABLE);
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private double tokens = BUCKET_CAPACITY;
+    private long refilledAt;
+    private State state = State.AVAILABLE;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long openDurationMs = MIN_OPEN_MS;
+    private boolean probeInFlight;
+
+    QuotaGuard() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    /** @param clock monotonic time in milliseconds */
+    QuotaGuard(LongSupplier clock) {
+        this.clock = clock;
+        refilledAt = clock.getAsLong();
+    }
+
+    public LiveData<State> getState() {
+        return stateLiveData;
+    }
+
+    /** True while requests would be rejected without reaching the network. */
+    public synchronized boolean isOpen() {
+        return state != State.AVAILABLE
+                && (clock.getAsLong() < openUntil || probeInFlight);
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        boolean probe = admit();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                acquireToken();
+                Response response = chain.proceed(chain.request());
+                Throttle throttle = classify(response);
+                if (throttle == null) {
+                    onSuccess();
+                    return response;
+                }
+                long retryAfterMs = retryAfterMs(response);
+                boolean open = onThrottled(throttle, retryAfterMs);
+                if (open || attempt == MAX_RETRIES || throttle == Throttle.DAILY_LIMIT) {
+                    return response;
+                }
+                long delay = retryAfterMs > 0 ? retryAfterMs : backoffMs(attempt);
+                if (delay > MAX_WAIT_MS) {
+                    return response;
+                }
+                Log.w(TAG, "Превышен лимит запросов (" + response.code() + "), повтор через " + delay + " мс");
+                response.close();
+                sleep(delay);
+            }
+        } finally {
+            if (probe) {
+                synchronized (this) {
+                    probeInFlight = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the request through or rejects it while the breaker is open.
+     * @return true if the request is the probe of a half-open breaker
+     */
+    private synchronized boolean admit() throws QuotaExceededException {
+        if (state == State.AVAILABLE) {
+            return false;
+        }
+        long now = clock.getAsLong();
+        if (now < openUntil || probeInFlight) {
+            throw new QuotaExceededException("Google Books quota exhausted, retry in "
+                    + Math.max(0, openUntil - now) / 1000 + " s");
+        }
+        probeInFlight = true;
+        setState(State.PROBING);
+        return true;
+    }
+
+    private void acquireToken() throws IOException {
+        long waitMs;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            tokens = Math.min(BUCKET_CAPACITY, tokens + (now - refilledAt) * TOKENS_PER_SECOND / 1000);
+            refilledAt = now;
+            // The token is reserved even if it is not there yet, so waiting callers queue up fairly
+            tokens -= 1;
+            waitMs = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / TOKENS_PER_SECOND);
+            if (waitMs > MAX_WAIT_MS) {
+                tokens += 1;
+                throw new QuotaExceededException("Too many Google Books requests, throttled locally");
+            }
+        }
+        if (waitMs > 0) {
+            sleep(waitMs);
+        }
+    }
+
+    private enum Throttle { RATE_LIMIT, DAILY_LIMIT, UNAVAILABLE }
+
+    private static Throttle classify(Response response) {
+        switch (response.code()) {
+            case 429:
+                return Throttle.RATE_LIMIT;
+            case 503:
+                return Throttle.UNAVAILABLE;
+            case 403:
+                String body;
+                try {
+                    body = response.peekBody(4096).string();
+                } catch (IOException e) {
+                    return null;
+                }
+                if (body.contains("dailyLimitExceeded") || body.contains("quotaExceeded")) {
+                    return Throttle.DAILY_LIMIT;
+                }
+                if (body.contains("rateLimitExceeded")) {
+                    return Throttle.RATE_LIMIT;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.AVAILABLE) {
+            Log.i(TAG, "Квота восстановлена");
+            openDurationMs = MIN_OPEN_MS;
+            setState(State.AVAILABLE);
+        }
+    }
+
+    /** @return true if the breaker is open now */
+    private synchronized boolean onThrottled(Throttle throttle, long retryAfterMs) {
+        if (throttle == Throttle.UNAVAILABLE) {
+            return false;
+        }
+        consecutiveFailures++;
+        if (state == State.PROBING) {
+            openDurationMs = Math.min(MAX_OPEN_MS, openDurationMs * 2);
+            open(Math.max(openDurationMs, retryAfterMs));
+        } else if (throttle == Throttle.DAILY_LIMIT) {
+            open(Math.max(DAILY_LIMIT_OPEN_MS, retryAfterMs));
+        } else if (consecutiveFailures >= FAILURES_TO_OPEN) {
+            open(Math.max(openDurationMs, retryAfterMs));
+        }
+        return state == State.LIMITED;
+    }
+
+    // Caller holds the lock
+    private void open(long durationMs) {
+        Log.w(TAG, "Квота исчерпана, запросы приостановлены на " + durationMs / 1000 + " с");
+        openUntil = clock.getAsLong() + durationMs;
+        consecutiveFailures = 0;
+        setState(State.LIMITED);
+    }
+
+    // Caller holds the lock
+    private void setState(State newState) {
+        if (state != newState) {
+            state = newState;
+            stateLiveData.postValue(newState);
+        }
+    }
+
+    private static long retryAfterMs(Response response) {
+        String header = response.header("Retry-After");
+        if (header == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(header.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            // HTTP-date form is not used by Google APIs
+            return 0;
+        }
+    }
+
+    // Half of the exponential step is fixed, the other half random, so concurrent retries spread out
+    private static long backoffMs(int attempt) {
+        long step = Math.min(MAX_WAIT_MS, BASE_BACKOFF_MS << attempt);
+        return step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for quota");
+        }
+    }
+}
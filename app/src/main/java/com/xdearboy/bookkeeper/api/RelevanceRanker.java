@@ -0,0 +1,171 @@
+package com.xdearboy.bookkeeper.api;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Sorts search results by relevance to the query. The query is tokenized once, every
+ * book is scored exactly once by the configured {@link Scorer}s, and the sort runs on
+ * primitive keys. Books with equal scores keep their original order.
+ */
+public class RelevanceRanker {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Scorer[] scorers;
+
+    public interface Scorer {
+        int score(Book book, RankingQuery query);
+    }
+
+    /**
+     * The query as seen by scorers: lower-cased once, plus its significant words
+     * (longer than two characters).
+     */
+    public static final class RankingQuery {
+        public final String text;
+        public final String[] words;
+
+        RankingQuery(String query) {
+            text = query.trim().toLowerCase(Locale.ROOT);
+            List<String> significant = new ArrayList<>();
+            for (String word : WHITESPACE.split(text)) {
+                if (word.length() > 2) {
+                    significant.add(word);
+                }
+            }
+            words = significant.toArray(new String[0]);
+        }
+    }
+
+    public RelevanceRanker(Scorer... scorers) {
+        this.scorers = scorers.clone();
+    }
+
+    /** Title and author matching with the weights search has always used. */
+    public static RelevanceRanker defaultRanker() {
+        return new RelevanceRanker(FieldMatchScorer.title(), FieldMatchScorer.author());
+    }
+
+    public void rank(List<Book> books, String query) {
+        if (books == null || books.size() < 2 || query == null || query.trim().isEmpty()) {
+            return;
+        }
+        RankingQuery rankingQuery = new RankingQuery(query);
+        int size = books.size();
+        // High 32 bits: negated score (best first), low 32 bits: original index (stable)
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            int score = 0;
+            for (Scorer scorer : scorers) {
+                score += scorer.score(books.get(i), rankingQuery);
+            }
+            keys[i] = ((long) -score << 32) | i;
+        }
+        Arrays.sort(keys);
+        Book[] ranked = new Book[size];
+        for (int i = 0; i < size; i++) {
+            ranked[i] = books.get((int) keys[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            books.set(i, ranked[i]);
+        }
+    }
+
+    /**
+     * Scores one text field: exact match, prefix, substring, otherwise a bonus per
+     * significant query word found in the field.
+     */
+    public static class FieldMatchScorer implements Scorer {
+        public interface Field {
+            String get(Book book);
+        }
+
+        private final Field field;
+        private final int exact;
+        private final int prefix;
+        private final int contains;
+        private final int perWord;
+
+        public FieldMatchScorer(Field field, int exact, int prefix, int contains, int perWord) {
+            this.field = field;
+            this.exact = exact;
+            this.prefix = prefix;
+            this.contains = contains;
+            this.perWord = perWord;
+        }
+
+        public static FieldMatchScorer title() {
+            return new FieldMatchScorer(Book::getTitle, 100, 50, 30, 10);
+        }
+
+        public static FieldMatchScorer author() {
+            return new FieldMatchScorer(Book::getAuthor, 80, 40, 20, 5);
+        }
+
+        @Override
+        public int score(Book book, RankingQuery query) {
+            String value = field.get(book);
+            if (value == null) {
+                return 0;
+            }
+            String lower = value.toLowerCase(Locale.ROOT);
+            if (lower.equals(query.text)) {
+                return exact;
+            } else if (lower.startsWith(query.text)) {
+                return prefix;
+            } else if (lower.contains(query.text)) {
+                return contains;
+            }
+            int score = 0;
+            for (String word : query.words) {
+                if (lower.contains(word)) {
+                    score += perWord;
+                }
+            }
+            return score;
+        }
+    }
+
+    /** Prefers recent books: {@code weight} for this year, one point less per year of age. */
+    public static class RecencyScorer implements Scorer {
+        private final int weight;
+        private final int currentYear;
+
+        public RecencyScorer(int weight) {
+            this.weight = weight;
+            this.currentYear = Calendar.getInstance().get(Calendar.YEAR);
+        }
+
+        @Override
+        public int score(Book book, RankingQuery query) {
+            if (book.getPublishDate() == null) {
+                return 0;
+            }
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(book.getPublishDate());
+            int age = Math.max(0, currentYear - calendar.get(Calendar.YEAR));
+            return Math.max(0, weight - age);
+        }
+    }
+
+    /** Adds a fixed bonus to books in the preferred language. */
+    public static class LanguageScorer implements Scorer {
+        private final String language;
+        private final int bonus;
+
+        public LanguageScorer(String language, int bonus) {
+            this.language = language;
+            this.bonus = bonus;
+        }
+
+        @Override
+        public int score(Book book, RankingQuery query) {
+            return language.equalsIgnoreCase(book.getLanguage()) ? bonus : 0;
+        }
+    }
+}
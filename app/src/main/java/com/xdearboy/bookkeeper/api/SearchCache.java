@@ -0,0 +1,271 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.LruCache;
+import com.xdearboy.bookkeeper.database.AppDatabase;
+import com.xdearboy.bookkeeper.database.dao.BookDao;
+import com.xdearboy.bookkeeper.database.dao.SearchResultDao;
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.model.CachedSearchResult;
+import com.xdearboy.bookkeeper.util.Constants;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Two-tier cache for search results: an in-memory LRU in front of the
+ * search_results table. The persistent tier is optional and keeps the books in
+ * the entry's own row, never in the books table: cached volumes are not part of
+ * the library and go away when the entry expires.
+ * Keys come from {@link SearchKey}; an entry stored for a size answers every
+ * key with the same base and a smaller or equal size. The memory tier is bounded
+ * by the estimated retained size of its entries, not by their number.
+ */
+class SearchCache {
+    private static final String TAG = "SearchCache";
+    // Rough retained sizes on ART: object headers, fields and array slots
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int BOOK_OVERHEAD_BYTES = 120;
+    private static final int STRING_OVERHEAD_BYTES = 24;
+
+    private final LruCache<String, Entry> memory;
+    @Nullable
+    private final BookDao bookDao;
+    @Nullable
+    private final SearchResultDao searchResultDao;
+    private final NetworkMetrics metrics = NetworkMetrics.getInstance();
+
+    private static class Entry {
+        final List<Book> books;
+        final int size;
+        final long fetchedAt;
+        // Fixed at creation: LruCache requires sizeOf to stay the same while the entry is cached
+        final int bytes;
+
+        Entry(String base, List<Book> books, int size, long fetchedAt) {
+            this.books = books;
+            this.size = size;
+            this.fetchedAt = fetchedAt;
+            this.bytes = estimateBytes(base, books);
+        }
+
+        /** A fresh entry is only replaced by a result fetched for at least its size. */
+        boolean isReplacedBy(int size, long now) {
+            return size >= this.size || now - fetchedAt > Constants.SEARCH_CACHE_TTL_MS;
+        }
+
+        @Nullable
+        List<Book> answer(int requestedSize) {
+            if (size < requestedSize) {
+                return null;
+            }
+            if (requestedSize <= 0 || books.size() <= requestedSize) {
+                return books;
+            }
+            return new ArrayList<>(books.subList(0, requestedSize));
+        }
+    }
+
+    /**
+     * Result read from the persistent tier. A stale entry is still served,
+     * but the caller is expected to revalidate it in the background.
+     */
+    static class PersistedEntry {
+        final List<Book> books;
+        final boolean stale;
+
+        PersistedEntry(List<Book> books, boolean stale) {
+            this.books = books;
+            this.stale = stale;
+        }
+    }
+
+    /** @param maxBytes budget of the memory tier, see {@link #estimateBytes} */
+    SearchCache(int maxBytes, @Nullable AppDatabase database) {
+        memory = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(@NonNull String key, @NonNull Entry entry) {
+                return entry.bytes;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, @NonNull String key, @NonNull Entry oldEntry,
+                                        @Nullable Entry newEntry) {
+                if (evicted) {
+                    metrics.recordCacheEviction(NetworkMetrics.CacheTier.MEMORY);
+                }
+            }
+        };
+        bookDao = database != null ? database.bookDao() : null;
+        searchResultDao = database != null ? database.searchResultDao() : null;
+    }
+
+    @Nullable
+    List<Book> get(String key) {
+        List<Book> books = lookup(key);
+        metrics.recordCacheLookup(NetworkMetrics.CacheTier.MEMORY, books != null, false);
+        return books;
+    }
+
+    /** Like {@link #get} but not counted as a lookup; for prefetch checks. */
+    boolean contains(String key) {
+        return lookup(key) != null;
+    }
+
+    @Nullable
+    private List<Book> lookup(String key) {
+        Entry entry = memory.get(SearchKey.baseOf(key));
+        return entry != null ? entry.answer(SearchKey.sizeOf(key)) : null;
+    }
+
+    /**
+     * Stores the result for the key's base, unless a fresh entry fetched for a larger size
+     * is already there: that one also answers this size, the new one would not answer it.
+     */
+    void put(String key, List<Book> books) {
+        String base = SearchKey.baseOf(key);
+        int size = SearchKey.sizeOf(key);
+        long now = System.currentTimeMillis();
+        Entry existing = memory.get(base);
+        if (existing != null && !existing.isReplacedBy(size, now)) {
+            return;
+        }
+        memory.put(base, new Entry(base, books, size, now));
+        reportMemoryUsage();
+        if (searchResultDao == null || books.isEmpty()) {
+            return;
+        }
+        List<Book> snapshot = new ArrayList<>(books);
+        AppDatabase.databaseWriteExecutor.execute(() -> persist(key, snapshot, now));
+    }
+
+    void evictAll() {
+        memory.evictAll();
+        reportMemoryUsage();
+    }
+
+    void setMaxBytes(int maxBytes) {
+        memory.resize(maxBytes);
+        reportMemoryUsage();
+    }
+
+    /**
+     * Gives memory back as the system asks: half of the memory tier when the app is in the
+     * background or memory is running low, all of it when the process is about to be killed
+     * or memory is critical. The persistent tier is not affected.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memory.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memory.trimToSize(memory.size() / 2);
+        } else {
+            return;
+        }
+        Log.d(TAG, "Кэш поиска сокращён, уровень " + level + ", занято байт: " + memory.size());
+        reportMemoryUsage();
+    }
+
+    private void reportMemoryUsage() {
+        metrics.recordCacheMemory(NetworkMetrics.CacheTier.MEMORY, memory.size(), memory.maxSize());
+    }
+
+    /**
+     * Estimated retained size of a cached list. Books shared with other entries are counted
+     * in each of them, so the total errs on the high side.
+     */
+    static int estimateBytes(String base, List<Book> books) {
+        int bytes = ENTRY_OVERHEAD_BYTES + stringBytes(base);
+        for (Book book : books) {
+            bytes += BOOK_OVERHEAD_BYTES
+                    + stringBytes(book.getId())
+                    + stringBytes(book.getTitle())
+                    + stringBytes(book.getAuthor())
+                    + stringBytes(book.getGenre())
+                    + stringBytes(book.getDescription())
+                    + stringBytes(book.getCoverImageUrl())
+                    + stringBytes(book.getBorrowedBy())
+                    + stringBytes(book.getIsbn())
+                    + stringBytes(book.getPublisher())
+                    + stringBytes(book.getLanguage());
+        }
+        return bytes;
+    }
+
+    private static int stringBytes(@Nullable String value) {
+        // Two bytes per char: Cyrillic text does not get the compact Latin-1 form
+        return value == null ? 0 : STRING_OVERHEAD_BYTES + 2 * value.length();
+    }
+
+    boolean hasPersistentTier() {
+        return searchResultDao != null;
+    }
+
+    @WorkerThread
+    @Nullable
+    PersistedEntry getPersisted(String key) {
+        if (searchResultDao == null) {
+            return null;
+        }
+        try {
+            String base = SearchKey.baseOf(key);
+            int size = SearchKey.sizeOf(key);
+            CachedSearchResult result = searchResultDao.getByKey(base);
+            if (result == null || result.getBooks() == null || result.getBooks().isEmpty()
+                    || result.getRequestedCount() < size) {
+                metrics.recordCacheLookup(NetworkMetrics.CacheTier.PERSISTENT, false, false);
+                return null;
+            }
+            long age = System.currentTimeMillis() - result.getFetchedAt();
+            if (age > Constants.SEARCH_CACHE_MAX_AGE_MS) {
+                searchResultDao.deleteByKey(base);
+                metrics.recordCacheLookup(NetworkMetrics.CacheTier.PERSISTENT, false, false);
+                return null;
+            }
+            Entry entry = new Entry(base, result.getBooks(), result.getRequestedCount(), result.getFetchedAt());
+            memory.put(base, entry);
+            reportMemoryUsage();
+            boolean stale = age > Constants.SEARCH_CACHE_TTL_MS;
+            metrics.recordCacheLookup(NetworkMetrics.CacheTier.PERSISTENT, true, stale);
+            return new PersistedEntry(entry.answer(size), stale);
+        } catch (Exception e) {
+            Log.e(TAG, "Ошибка чтения кэша поиска: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Books from the local database matching the query; used while the API is unavailable. */
+    @WorkerThread
+    List<Book> searchLocal(String query) {
+        if (bookDao == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return bookDao.searchBooksExtended(query);
+        } catch (Exception e) {
+            Log.e(TAG, "Ошибка локального поиска: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private void persist(String key, List<Book> books, long now) {
+        try {
+            String base = SearchKey.baseOf(key);
+            int size = SearchKey.sizeOf(key);
+            CachedSearchResult stored = searchResultDao.getByKey(base);
+            if (stored != null && size < stored.getRequestedCount()
+                    && now - stored.getFetchedAt() <= Constants.SEARCH_CACHE_TTL_MS) {
+                return;
+            }
+            searchResultDao.insert(new CachedSearchResult(base, books, now, size));
+            searchResultDao.deleteOlderThan(now - Constants.SEARCH_CACHE_MAX_AGE_MS);
+        } catch (Exception e) {
+            Log.e(TAG, "Ошибка записи кэша поиска: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.xdearboy.bookkeeper.api;
+
+/**
+ * Returned by the search methods of {@link BookApiClient}. Cancelling detaches the caller:
+ * its callback is never invoked afterwards, and once no other caller is waiting for the
+ * same search the network request itself is cancelled.
+ */
+public class SearchHandle {
+    private boolean cancelled;
+    private Runnable onCancel;
+
+    SearchHandle() {
+    }
+
+    /** A handle with nothing left to cancel; cancelling it only marks it cancelled. */
+    public static SearchHandle completed() {
+        return new SearchHandle();
+    }
+
+    public void cancel() {
+        Runnable action;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            action = onCancel;
+            onCancel = null;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Sets what cancelling does; runs it right away if the handle is already cancelled. */
+    void setOnCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                onCancel = action;
+                return;
+            }
+        }
+        action.run();
+    }
+}
@@ -0,0 +1,75 @@
+package com.xdearboy.bookkeeper.api;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Cache keys for search results. The query is reduced to a canonical form (Unicode NFC,
+ * case folded, whitespace collapsed, ё folded to е), so "Толстой", "толстой " and
+ * "ТОЛСТОЙ" share one entry. A key is {@code base#size}: the base names the result list,
+ * the size is how many results were asked for. {@link SearchCache} stores one list per
+ * base, so a list fetched for a larger size also answers a smaller one.
+ */
+final class SearchKey {
+    private static final char SIZE_SEPARATOR = '#';
+
+    private SearchKey() {
+    }
+
+    /** Key of the first {@code maxResults} results of a search. */
+    static String search(String query, int maxResults) {
+        return "search:" + canonicalQuery(query) + SIZE_SEPARATOR + maxResults;
+    }
+
+    /** Key of one fixed-size page of results. */
+    static String page(String query, int page, int pageLength) {
+        return "page:" + page + ':' + canonicalQuery(query) + SIZE_SEPARATOR + pageLength;
+    }
+
+    /** Key of one hydrated volume, which has no size. */
+    static String volume(String volumeId) {
+        return "volume:" + volumeId;
+    }
+
+    static String baseOf(String key) {
+        int separator = key.lastIndexOf(SIZE_SEPARATOR);
+        return separator >= 0 ? key.substring(0, separator) : key;
+    }
+
+    /** @return the size of the key, or 0 if it has none */
+    static int sizeOf(String key) {
+        int separator = key.lastIndexOf(SIZE_SEPARATOR);
+        if (separator < 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(key.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static String canonicalQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFC);
+        // Upper then lower case folds more than lower case alone, e.g. "ß" and "ss"
+        String folded = normalized.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(folded.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(c == 'ё' ? 'е' : c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,450 @@
+package com.xdearboy.bookkeeper.api;
+
+import androidx.annotation.NonNull;
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.util.Constants;
+import com.xdearboy.bookkeeper.util.PublishDateParser;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * An offline stand-in for the Google Books API, for development without an API key and for
+ * load and performance tests. The catalog (Russian titles, authors, genres, descriptions) is
+ * generated from a seed, so the same seed always gives the same books and search results.
+ * Latency and failures can be injected; which calls fail is drawn from the seed too, in the
+ * order the calls are created. Requests never reach OkHttp, so {@link QuotaGuard} and
+ * {@link NetworkMetrics} do not see them.
+ */
+public class SyntheticBookApiService implements BookApiService {
+    private static final String ID_PREFIX = "synthetic-";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static final String[] TITLE_ADJECTIVES = {
+            "Тихий", "Последний", "Северный", "Забытый", "Красный", "Старый", "Белый", "Тёмный",
+            "Далёкий", "Золотой", "Неизвестный", "Потерянный", "Морской", "Железный", "Зимний", "Весенний"
+    };
+    private static final String[] TITLE_NOUNS = {
+            "дом", "город", "берег", "сад", "путь", "остров", "лес", "мост",
+            "ветер", "огонь", "край", "дозор", "век", "час", "сон", "перевал"
+    };
+    private static final String[] TITLE_ENDINGS = {
+            "над рекой", "у моря", "в степи", "на обочине", "под снегом", "за горизонтом", "среди звёзд", "в тумане"
+    };
+    private static final String[] MALE_NAMES = {
+            "Михаил", "Сергей", "Дмитрий", "Алексей", "Николай", "Пётр", "Иван", "Андрей"
+    };
+    private static final String[] FEMALE_NAMES = {
+            "Анна", "Елена", "Ольга", "Татьяна", "Мария", "Ирина", "Наталья", "Светлана"
+    };
+    // All end in -ов/-ев/-ин, so the feminine form just adds "а"
+    private static final String[] LAST_NAMES = {
+            "Иванов", "Смирнов", "Кузнецов", "Попов", "Соколов", "Лебедев", "Козлов", "Новиков",
+            "Морозов", "Волков", "Соловьёв", "Васильев", "Зайцев", "Белкин", "Ильин", "Орлов"
+    };
+    private static final String[] GENRES = {
+            "Фантастика", "Детектив", "Роман", "История", "Поэзия", "Приключения",
+            "Биография", "Наука", "Философия", "Детская литература"
+    };
+    private static final String[] PUBLISHERS = {"Эксмо", "АСТ", "Азбука", "Альпина", "Речь", "Дрофа"};
+    private static final String[] SENTENCES = {
+            "Герои отправляются в путь, не зная, что ждёт их впереди.",
+            "Это история о дружбе, потерях и надежде.",
+            "Автор бережно восстанавливает события прошлого века.",
+            "Старый дом хранит тайну, которую никто не решался раскрыть.",
+            "Книга написана живым языком и читается на одном дыхании.",
+            "Небольшой город меняется до неузнаваемости за одно лето.",
+            "Каждая глава открывает новую сторону привычных вещей.",
+            "Впервые на русском языке в полном переводе."
+    };
+
+    private static final ScheduledExecutorService DELIVERY = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "synthetic-books");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long seed;
+    private final List<Book> catalog;
+    private final Map<String, Integer> positions = new HashMap<>();
+    // Search token -> catalog positions, in ascending order
+    private final Map<String, List<Integer>> index = new HashMap<>();
+    // Guarded by itself: draws latency and failures for each call, in call order
+    private final Random draws;
+
+    private volatile long minLatencyMs;
+    private volatile long maxLatencyMs;
+    private volatile double errorRate;
+    private volatile int errorCode = 503;
+    private volatile double timeoutRate;
+
+    public SyntheticBookApiService(long seed, int catalogSize) {
+        this.seed = seed;
+        this.draws = new Random(seed);
+        Random random = new Random(seed);
+        catalog = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            Book book = generateBook(i, random);
+            catalog.add(book);
+            positions.put(book.getId(), i);
+            for (String token : tokens(book.getTitle() + ' ' + book.getAuthor() + ' ' + book.getGenre())) {
+                List<Integer> postings = index.computeIfAbsent(token, key -> new ArrayList<>());
+                if (postings.isEmpty() || postings.get(postings.size() - 1) != i) {
+                    postings.add(i);
+                }
+            }
+        }
+    }
+
+    /** Every call is answered after a uniformly drawn delay between the two bounds. */
+    public void setLatency(long minMs, long maxMs) {
+        this.minLatencyMs = Math.max(0, minMs);
+        this.maxLatencyMs = Math.max(this.minLatencyMs, maxMs);
+    }
+
+    /** A share of calls, from 0 to 1, answered with the HTTP status {@code code}. */
+    public void setErrorRate(double rate, int code) {
+        if (code < 400) {
+            throw new IllegalArgumentException("Not an error status: " + code);
+        }
+        this.errorRate = rate;
+        this.errorCode = code;
+    }
+
+    /** A share of calls, from 0 to 1, that fail with a {@link SocketTimeoutException} after the latency. */
+    public void setTimeoutRate(double rate) {
+        this.timeoutRate = rate;
+    }
+
+    public int getCatalogSize() {
+        return catalog.size();
+    }
+
+    /** A copy of the book at the position, with every field filled. */
+    public Book getBook(int position) {
+        return copy(catalog.get(position), true);
+    }
+
+    @Override
+    public Call<VolumePage> searchBooks(String query, int maxResults, String key) {
+        return searchCall(query, maxResults, 0, null);
+    }
+
+    @Override
+    public Call<VolumePage> searchBooksWithPagination(String query, int maxResults, int startIndex, String key) {
+        return searchCall(query, maxResults, startIndex, null);
+    }
+
+    @Override
+    public Call<VolumePage> searchBooksByLanguage(String query, int maxResults, String langRestrict,
+                                                  String fields, String key) {
+        return searchCall(query, maxResults, 0, fields);
+    }
+
+    @Override
+    public Call<Book> getBookById(String volumeId, String fields, String key) {
+        Request request = new Request.Builder()
+                .url(HttpUrl.get(Constants.GOOGLE_BOOKS_BASE_URL).newBuilder()
+                        .addPathSegment("volumes")
+                        .addPathSegment(volumeId)
+                        .build())
+                .build();
+        return newCall(request, () -> {
+            Integer position = positions.get(volumeId);
+            if (position == null) {
+                return Response.error(404, ResponseBody.create("{\"error\":{\"code\":404}}", JSON));
+            }
+            return Response.success(copy(catalog.get(position), true));
+        });
+    }
+
+    @Override
+    public Call<VolumePage> searchBooksWithPaginationAndLanguage(String query, int maxResults, int startIndex,
+                                                                 String langRestrict, String fields, String key) {
+        return searchCall(query, maxResults, startIndex, fields);
+    }
+
+    private Call<VolumePage> searchCall(String query, int maxResults, int startIndex, String fields) {
+        Request request = new Request.Builder()
+                .url(HttpUrl.get(Constants.GOOGLE_BOOKS_BASE_URL).newBuilder()
+                        .addPathSegment("volumes")
+                        .addQueryParameter("q", query)
+                        .addQueryParameter("maxResults", String.valueOf(maxResults))
+                        .addQueryParameter("startIndex", String.valueOf(startIndex))
+                        .build())
+                .build();
+        // The list projection has no description, like the real API
+        boolean details = fields == null || fields.contains("description");
+        return newCall(request, () -> {
+            List<Integer> matches = search(query);
+            int from = Math.min(Math.max(0, startIndex), matches.size());
+            int to = Math.min(matches.size(), from + Math.min(maxResults, QueryPlanner.MAX_RESULTS_PER_REQUEST));
+            List<Book> books = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                books.add(copy(catalog.get(matches.get(i)), details));
+            }
+            return Response.success(new VolumePage(books, matches.size()));
+        });
+    }
+
+    // Books containing every word of the query in the title, author or genre
+    private List<Integer> search(String query) {
+        List<Integer> result = null;
+        for (String token : tokens(query)) {
+            List<Integer> postings = index.get(token);
+            if (postings == null) {
+                return Collections.emptyList();
+            }
+            result = result == null ? postings : intersect(result, postings);
+        }
+        return result != null ? result : Collections.emptyList();
+    }
+
+    private static List<Integer> intersect(List<Integer> a, List<Integer> b) {
+        List<Integer> result = new ArrayList<>(Math.min(a.size(), b.size()));
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            int x = a.get(i);
+            int y = b.get(j);
+            if (x == y) {
+                result.add(x);
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // Words of the text, case folded; field prefixes such as "intitle:" are dropped
+    private static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String word : SearchKey.canonicalQuery(text).split("[^\\p{L}\\p{N}:]+")) {
+            int prefix = word.indexOf(':');
+            String token = prefix >= 0 ? word.substring(prefix + 1) : word;
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private Book generateBook(int position, Random random) {
+        String title = pick(random, TITLE_ADJECTIVES) + ' ' + pick(random, TITLE_NOUNS);
+        if (random.nextInt(3) == 0) {
+            title += ' ' + pick(random, TITLE_ENDINGS);
+        }
+        boolean female = random.nextBoolean();
+        String author = pick(random, female ? FEMALE_NAMES : MALE_NAMES) + ' '
+                + pick(random, LAST_NAMES) + (female ? "а" : "");
+        StringBuilder description = new StringBuilder();
+        int sentences = 2 + random.nextInt(3);
+        for (int i = 0; i < sentences; i++) {
+            if (i > 0) {
+                description.append(' ');
+            }
+            description.append(pick(random, SENTENCES));
+        }
+        Book book = new Book();
+        book.setId(ID_PREFIX + position);
+        book.setTitle(title);
+        book.setAuthor(author);
+        book.setGenre(pick(random, GENRES));
+        book.setDescription(description.toString());
+        book.setPublisher(pick(random, PUBLISHERS));
+        book.setPageCount(80 + random.nextInt(900));
+        book.setLanguage("ru");
+        book.setIsbn(isbn13(seed, position));
+        String date = String.format(Locale.ROOT, "%04d-%02d-%02d",
+                1950 + random.nextInt(74), 1 + random.nextInt(12), 1 + random.nextInt(28));
+        // Like the real API, a good share of dates are only a year or a month
+        String published = date.substring(0, new int[]{4, 7, 10}[random.nextInt(3)]);
+        int precision = PublishDateParser.precisionOf(published);
+        book.setPublishDate(PublishDateParser.toEpochMillis(published, precision));
+        book.setPublishDatePrecision(precision);
+        book.setFromApi(true);
+        return book;
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    // A valid ISBN-13 in the 978 range, unique per position
+    private static String isbn13(long seed, int position) {
+        String digits = String.format(Locale.ROOT, "978%09d", Math.floorMod(seed * 7919 + position, 1_000_000_000L));
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    private static Book copy(Book source, boolean details) {
+        Book book = new Book();
+        book.setId(source.getId());
+        book.setTitle(source.getTitle());
+        book.setAuthor(source.getAuthor());
+        book.setGenre(source.getGenre());
+        book.setDescription(details ? source.getDescription() : "");
+        book.setPublisher(source.getPublisher());
+        book.setPageCount(source.getPageCount());
+        book.setLanguage(source.getLanguage());
+        book.setIsbn(source.getIsbn());
+        book.setPublishDate(source.getPublishDate());
+        book.setPublishDatePrecision(source.getPublishDatePrecision());
+        book.setFromApi(true);
+        return book;
+    }
+
+    private <T> Call<T> newCall(Request request, Supplier<Response<T>> answer) {
+        long latencyMs;
+        double failureDraw;
+        synchronized (draws) {
+            latencyMs = minLatencyMs + (long) (draws.nextDouble() * (maxLatencyMs - minLatencyMs));
+            failureDraw = draws.nextDouble();
+        }
+        Failure failure = failureDraw < timeoutRate ? Failure.TIMEOUT
+                : failureDraw < timeoutRate + errorRate ? Failure.ERROR : Failure.NONE;
+        return new SyntheticCall<>(request, answer, latencyMs, failure, errorCode);
+    }
+
+    private enum Failure {
+        NONE,
+        ERROR,
+        TIMEOUT
+    }
+
+    private final class SyntheticCall<T> implements Call<T> {
+        private final Request request;
+        private final Supplier<Response<T>> answer;
+        private final long latencyMs;
+        private final Failure failure;
+        private final int errorCode;
+        private final AtomicBoolean executed = new AtomicBoolean();
+        private final AtomicBoolean canceled = new AtomicBoolean();
+        private volatile ScheduledFuture<?> pending;
+        private volatile Callback<T> callback;
+
+        SyntheticCall(Request request, Supplier<Response<T>> answer, long latencyMs, Failure failure, int errorCode) {
+            this.request = request;
+            this.answer = answer;
+            this.latencyMs = latencyMs;
+            this.failure = failure;
+            this.errorCode = errorCode;
+        }
+
+        @Override
+        public Response<T> execute() throws IOException {
+            markExecuted();
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            }
+            return respond();
+        }
+
+        @Override
+        public void enqueue(Callback<T> callback) {
+            markExecuted();
+            this.callback = callback;
+            pending = DELIVERY.schedule(() -> {
+                Response<T> response;
+                try {
+                    response = respond();
+                } catch (IOException e) {
+                    callback.onFailure(this, e);
+                    return;
+                }
+                callback.onResponse(this, response);
+            }, latencyMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void markExecuted() {
+            if (!executed.compareAndSet(false, true)) {
+                throw new IllegalStateException("Already executed.");
+            }
+        }
+
+        private Response<T> respond() throws IOException {
+            if (canceled.get()) {
+                throw new IOException("Canceled");
+            }
+            switch (failure) {
+                case TIMEOUT:
+                    throw new SocketTimeoutException("timeout");
+                case ERROR:
+                    return Response.error(errorCode,
+                            ResponseBody.create("{\"error\":{\"code\":" + errorCode + "}}", JSON));
+                default:
+                    return answer.get();
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return executed.get();
+        }
+
+        @Override
+        public void cancel() {
+            if (!canceled.compareAndSet(false, true)) {
+                return;
+            }
+            ScheduledFuture<?> scheduled = pending;
+            Callback<T> target = callback;
+            // Like OkHttp, an enqueued call that is cancelled still gets onFailure
+            if (scheduled != null && scheduled.cancel(false) && target != null) {
+                DELIVERY.execute(() -> target.onFailure(this, new IOException("Canceled")));
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled.get();
+        }
+
+        @NonNull
+        @Override
+        public Call<T> clone() {
+            return newCall(request, answer);
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.xdearboy.bookkeeper.api;
+
+import com.google.gson.stream.JsonReader;
+import com.xdearboy.bookkeeper.model.Book;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import okhttp3.ResponseBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * Retrofit converter that decodes {@link VolumePage} and {@link Book} responses with
+ * {@link VolumeStreamDecoder} instead of building the Gson object graph first.
+ * Other types are left to the next converter factory.
+ */
+public final class VolumeConverterFactory extends Converter.Factory {
+
+    public static VolumeConverterFactory create() {
+        return new VolumeConverterFactory();
+    }
+
+    private VolumeConverterFactory() {
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations,
+            Retrofit retrofit) {
+        if (type == VolumePage.class) {
+            return (Converter<ResponseBody, VolumePage>) body -> {
+                try (JsonReader reader = new JsonReader(body.charStream())) {
+                    return new VolumeStreamDecoder().readPage(reader);
+                } finally {
+                    body.close();
+                }
+            };
+        }
+        if (type == Book.class) {
+            return (Converter<ResponseBody, Book>) body -> {
+                try (JsonReader reader = new JsonReader(body.charStream())) {
+                    return new VolumeStreamDecoder().readVolume(reader);
+                } finally {
+                    body.close();
+                }
+            };
+        }
+        return null;
+    }
+}
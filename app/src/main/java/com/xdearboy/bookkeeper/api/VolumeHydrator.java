@@ -0,0 +1,229 @@
+package com.xdearboy.bookkeeper.api;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.LruCache;
+import com.xdearboy.bookkeeper.database.AppDatabase;
+import com.xdearboy.bookkeeper.database.dao.BookDao;
+import com.xdearboy.bookkeeper.database.dao.SearchResultDao;
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.model.CachedSearchResult;
+import com.xdearboy.bookkeeper.util.BookIdentity;
+import com.xdearboy.bookkeeper.util.Constants;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Loads full ({@link FieldProjection#DETAILS}) volumes for a list of ids in one batch.
+ * Ids already complete in memory or in the books table are not requested; the rest are
+ * fetched through {@link Futures}, at most {@link #MAX_PARALLEL} at a time until the batch
+ * deadline, after which the calls still running are cancelled. What was fetched
+ * refreshes the existing rows in a single transaction. Volumes without a row are not added
+ * to the books table, where they would look like available books; they are stored in the
+ * search_results table under a {@link SearchKey#volume} key instead, so they survive the
+ * process and are dropped with the other cached results after
+ * {@link Constants#SEARCH_CACHE_MAX_AGE_MS}.
+ */
+class VolumeHydrator {
+    private static final String TAG = "VolumeHydrator";
+    private static final int MAX_PARALLEL = 4;
+    private static final int CACHE_SIZE = 100;
+
+    private final BookApiService apiService;
+    @Nullable
+    private final BookDao bookDao;
+    @Nullable
+    private final SearchResultDao searchResultDao;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final QuotaGuard quotaGuard;
+    private final LruCache<String, Book> hydrated = new LruCache<>(CACHE_SIZE);
+
+    VolumeHydrator(BookApiService apiService, @Nullable AppDatabase database, Executor executor,
+                   ScheduledExecutorService scheduler, QuotaGuard quotaGuard) {
+        this.apiService = apiService;
+        this.bookDao = database != null ? database.bookDao() : null;
+        this.searchResultDao = database != null ? database.searchResultDao() : null;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.quotaGuard = quotaGuard;
+    }
+
+    /**
+     * Delivers the books in the order of the ids; ids that could not be loaded before the
+     * deadline are left out. Called back on a background thread.
+     */
+    void hydrate(List<String> volumeIds, long deadlineMs, BookApiClient.OnSearchResultCallback callback) {
+        executor.execute(() -> {
+            LinkedHashSet<String> ids = new LinkedHashSet<>();
+            for (String id : volumeIds) {
+                if (id != null && !id.isEmpty()) {
+                    ids.add(id);
+                }
+            }
+            Map<String, Book> known = new HashMap<>();
+            List<String> missing = new ArrayList<>();
+            for (String id : ids) {
+                Book book = hydrated.get(id);
+                if (book != null) {
+                    known.put(id, book);
+                }
+            }
+            if (bookDao != null && known.size() < ids.size()) {
+                try {
+                    for (Book book : bookDao.getBooksByIdsSync(new ArrayList<>(ids))) {
+                        // The stored row wins over the memory copy: it has the borrow state
+                        known.put(book.getId(), book);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Ошибка чтения книг из базы: " + e.getMessage());
+                }
+            }
+            if (known.size() < ids.size()) {
+                for (Book book : readStored(ids, known)) {
+                    hydrated.put(book.getId(), book);
+                    known.put(book.getId(), book);
+                }
+            }
+            for (String id : ids) {
+                Book book = known.get(id);
+                if (book == null) {
+                    // Ids of local books are never volume ids
+                    if (!id.startsWith(BookIdentity.ISBN_PREFIX)) {
+                        missing.add(id);
+                    }
+                } else if (book.isFromApi() && isEmpty(book.getDescription()) && hydrated.get(id) == null) {
+                    missing.add(id);
+                }
+            }
+            if (missing.isEmpty() || quotaGuard.isOpen()) {
+                callback.onSuccess(ordered(ids, known));
+                return;
+            }
+            Log.d(TAG, "Догружаем книг: " + missing.size() + " из " + ids.size());
+            List<Supplier<CompletableFuture<Book>>> loads = new ArrayList<>(missing.size());
+            for (String id : missing) {
+                loads.add(() -> load(id));
+            }
+            Futures.allOf(loads, MAX_PARALLEL, deadlineMs, scheduler).thenAcceptAsync(loaded -> {
+                List<Book> books = new ArrayList<>(loaded.size());
+                for (Book book : loaded) {
+                    if (book != null && book.getId() != null) {
+                        books.add(book);
+                    }
+                }
+                if (loaded.size() < missing.size()) {
+                    Log.w(TAG, "Не догружено книг: " + (missing.size() - loaded.size()));
+                }
+                deliver(ids, known, books, callback);
+            }, executor);
+        });
+    }
+
+    // Volumes hydrated earlier that have no row in the books table
+    @WorkerThread
+    private List<Book> readStored(Set<String> ids, Map<String, Book> known) {
+        List<Book> books = new ArrayList<>();
+        if (searchResultDao == null) {
+            return books;
+        }
+        List<String> keys = new ArrayList<>();
+        for (String id : ids) {
+            if (!known.containsKey(id) && !id.startsWith(BookIdentity.ISBN_PREFIX)) {
+                keys.add(SearchKey.volume(id));
+            }
+        }
+        if (keys.isEmpty()) {
+            return books;
+        }
+        try {
+            long oldest = System.currentTimeMillis() - Constants.SEARCH_CACHE_MAX_AGE_MS;
+            for (CachedSearchResult stored : searchResultDao.getByKeys(keys)) {
+                if (stored.getFetchedAt() >= oldest && stored.getBooks() != null && !stored.getBooks().isEmpty()) {
+                    books.add(stored.getBooks().get(0));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Ошибка чтения догруженных книг: " + e.getMessage());
+        }
+        return books;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static List<Book> ordered(Set<String> ids, Map<String, Book> books) {
+        List<Book> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Book book = books.get(id);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    // Cancelling the future cancels the call
+    private CompletableFuture<Book> load(String id) {
+        CompletableFuture<Book> load = Futures.ofCall(apiService.getBookById(id, FieldProjection.DETAILS.forVolume(),
+                Constants.GOOGLE_BOOKS_API_KEY));
+        load.whenComplete((book, error) -> {
+            if (error != null && !load.isCancelled()) {
+                Log.w(TAG, "Ошибка при загрузке книги " + id + ": " + error.getMessage());
+            }
+        });
+        return load;
+    }
+
+    @WorkerThread
+    private void deliver(Set<String> ids, Map<String, Book> known, List<Book> books,
+                         BookApiClient.OnSearchResultCallback callback) {
+        for (Book book : books) {
+            hydrated.put(book.getId(), book);
+            known.put(book.getId(), book);
+        }
+        Set<String> withRow = new HashSet<>();
+        if (bookDao != null && !books.isEmpty()) {
+            try {
+                // One transaction for the whole batch, then re-read to get the merged rows
+                bookDao.refreshAll(books);
+                for (Book book : bookDao.getBooksByIdsSync(new ArrayList<>(ids))) {
+                    known.put(book.getId(), book);
+                    withRow.add(book.getId());
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Ошибка сохранения догруженных книг: " + e.getMessage());
+            }
+        }
+        if (searchResultDao != null) {
+            long now = System.currentTimeMillis();
+            List<CachedSearchResult> volumes = new ArrayList<>();
+            for (Book book : books) {
+                if (!withRow.contains(book.getId())) {
+                    volumes.add(new CachedSearchResult(SearchKey.volume(book.getId()),
+                            Collections.singletonList(book), now, 1));
+                }
+            }
+            if (!volumes.isEmpty()) {
+                try {
+                    searchResultDao.insertAll(volumes);
+                } catch (Exception e) {
+                    Log.e(TAG, "Ошибка сохранения догруженных книг: " + e.getMessage());
+                }
+            }
+        }
+        callback.onSuccess(ordered(ids, known));
+    }
+}
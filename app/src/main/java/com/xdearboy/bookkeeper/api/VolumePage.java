@@ -0,0 +1,25 @@
+package com.xdearboy.bookkeeper.api;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.List;
+
+/**
+ * One page of a Google Books volumes response, already decoded into {@link Book}s.
+ */
+public class VolumePage {
+    private final List<Book> books;
+    private final int totalItems;
+
+    public VolumePage(List<Book> books, int totalItems) {
+        this.books = books;
+        this.totalItems = totalItems;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public int getTotalItems() {
+        return totalItems;
+    }
+}
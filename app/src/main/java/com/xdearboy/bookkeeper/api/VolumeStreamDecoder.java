@@ -0,0 +1,232 @@
+package com.xdearboy.bookkeeper.api;
+
+import androidx.annotation.Nullable;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.util.PublishDateParser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-parser for Google Books volume documents. Reads only the volumeInfo fields that
+ * end up in {@link Book} and skips everything else (saleInfo, accessInfo, searchInfo, ...)
+ * without materializing it. Not thread-safe: create one decoder per response.
+ */
+public class VolumeStreamDecoder {
+    private final StringBuilder joinBuffer = new StringBuilder();
+
+    public VolumePage readPage(JsonReader reader) throws IOException {
+        List<Book> books = new ArrayList<>();
+        int totalItems = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader)) {
+                continue;
+            }
+            switch (name) {
+                case "totalItems":
+                    totalItems = reader.nextInt();
+                    break;
+                case "items":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Book book = readVolume(reader);
+                        if (book != null) {
+                            books.add(book);
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new VolumePage(books, totalItems);
+    }
+
+    /**
+     * @return the decoded book, or null when the volume has no volumeInfo
+     */
+    @Nullable
+    public Book readVolume(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        String id = null;
+        Book book = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader)) {
+                continue;
+            }
+            if ("id".equals(name)) {
+                id = reader.nextString();
+            } else if ("volumeInfo".equals(name)) {
+                book = readVolumeInfo(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (book == null) {
+            return null;
+        }
+        book.setApiId(id);
+        return book;
+    }
+
+    private Book readVolumeInfo(JsonReader reader) throws IOException {
+        Book book = new Book();
+        String author = null;
+        String genre = null;
+        String description = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader)) {
+                continue;
+            }
+            switch (name) {
+                case "title":
+                    book.setTitle(reader.nextString());
+                    break;
+                case "authors":
+                    author = readJoined(reader);
+                    break;
+                case "publisher":
+                    book.setPublisher(reader.nextString());
+                    break;
+                case "publishedDate":
+                    setPublishDate(book, reader.nextString());
+                    break;
+                case "description":
+                    description = reader.nextString();
+                    break;
+                case "pageCount":
+                    int pageCount = reader.nextInt();
+                    if (pageCount > 0) {
+                        book.setPageCount(pageCount);
+                    }
+                    break;
+                case "categories":
+                    genre = readJoined(reader);
+                    break;
+                case "imageLinks":
+                    readImageLinks(reader, book);
+                    break;
+                case "language":
+                    book.setLanguage(reader.nextString());
+                    break;
+                case "industryIdentifiers":
+                    readIsbn(reader, book);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        book.setAuthor(author != null ? author : "Unknown Author");
+        book.setDescription(description != null ? description : "");
+        book.setGenre(genre != null ? genre : "General");
+        book.setFromApi(true);
+        return book;
+    }
+
+    @Nullable
+    private String readJoined(JsonReader reader) throws IOException {
+        joinBuffer.setLength(0);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (skipNull(reader)) {
+                continue;
+            }
+            if (joinBuffer.length() > 0) {
+                joinBuffer.append(", ");
+            }
+            joinBuffer.append(reader.nextString());
+        }
+        reader.endArray();
+        return joinBuffer.length() > 0 ? joinBuffer.toString() : null;
+    }
+
+    private void readImageLinks(JsonReader reader, Book book) throws IOException {
+        String thumbnail = null;
+        String smallThumbnail = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader)) {
+                continue;
+            }
+            if ("thumbnail".equals(name)) {
+                thumbnail = reader.nextString();
+            } else if ("smallThumbnail".equals(name)) {
+                smallThumbnail = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (thumbnail != null) {
+            book.setImageUrl(thumbnail.replace("http:", "https:"));
+        } else if (smallThumbnail != null) {
+            book.setImageUrl(smallThumbnail.replace("http:", "https:"));
+        }
+    }
+
+    private void readIsbn(JsonReader reader, Book book) throws IOException {
+        String isbn13 = null;
+        String isbn10 = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (skipNull(reader)) {
+                continue;
+            }
+            String type = null;
+            String identifier = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (skipNull(reader)) {
+                    continue;
+                }
+                if ("type".equals(name)) {
+                    type = reader.nextString();
+                } else if ("identifier".equals(name)) {
+                    identifier = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if ("ISBN_13".equals(type) && isbn13 == null) {
+                isbn13 = identifier;
+            } else if ("ISBN_10".equals(type) && isbn10 == null) {
+                isbn10 = identifier;
+            }
+        }
+        reader.endArray();
+        book.setIsbn(isbn13 != null ? isbn13 : isbn10);
+    }
+
+    private static void setPublishDate(Book book, String value) {
+        int precision = PublishDateParser.precisionOf(value);
+        if (precision != PublishDateParser.PRECISION_NONE) {
+            book.setPublishDate(PublishDateParser.toEpochMillis(value, precision));
+            book.setPublishDatePrecision(precision);
+        }
+    }
+
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
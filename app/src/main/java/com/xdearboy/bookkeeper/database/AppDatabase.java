@@ -5,13 +5,16 @@ import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import com.xdearboy.bookkeeper.database.dao.BookDao;
 import com.xdearboy.bookkeeper.database.dao.CategoryDao;
 import com.xdearboy.bookkeeper.database.dao.NotificationDao;
+import com.xdearboy.bookkeeper.database.dao.SearchResultDao;
 import com.xdearboy.bookkeeper.database.dao.UserDao;
 import com.xdearboy.bookkeeper.database.dao.UserPreferencesDao;
 import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.model.CachedSearchResult;
 import com.xdearboy.bookkeeper.model.Category;
 import com.xdearboy.bookkeeper.model.Notification;
 import com.xdearboy.bookkeeper.model.User;
@@ -21,7 +24,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 @Database(entities = { Book.class, User.class, Notification.class, Category.class,
-        UserPreferences.class }, version = 3, exportSchema = false)
+        UserPreferences.class, CachedSearchResult.class }, version = 4, exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
     private static final String DATABASE_NAME = "bookkeeper_db";
 
@@ -35,10 +38,23 @@ public abstract class AppDatabase extends RoomDatabase {
 
     public abstract UserPreferencesDao userPreferencesDao();
 
+    public abstract SearchResultDao searchResultDao();
+
     private static volatile AppDatabase INSTANCE;
     private static final int NUMBER_OF_THREADS = 4;
     public static final ExecutorService databaseWriteExecutor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
 
+    // Версия 4: сохранённые результаты поиска (книги хранятся в самой записи) и точность
+    // даты публикации; у существующих книг она неизвестна
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS search_results (cacheKey TEXT NOT NULL, books TEXT, "
+                    + "fetchedAt INTEGER NOT NULL, requestedCount INTEGER NOT NULL, PRIMARY KEY(cacheKey))");
+            db.execSQL("ALTER TABLE books ADD COLUMN publishDatePrecision INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
     public static AppDatabase getInstance(final Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
@@ -47,6 +63,7 @@ public abstract class AppDatabase extends RoomDatabase {
                             context.getApplicationContext(),
                             AppDatabase.class,
                             DATABASE_NAME)
+                            .addMigrations(MIGRATION_3_4)
                             .fallbackToDestructiveMigration()
                             .addCallback(new Callback() {
                                 @Override
@@ -57,7 +74,6 @@ public abstract class AppDatabase extends RoomDatabase {
                                     });
                                 }
                             })
-                            .fallbackToDestructiveMigration()
                             .build();
                 }
             }
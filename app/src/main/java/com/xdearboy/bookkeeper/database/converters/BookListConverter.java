@@ -0,0 +1,37 @@
+package com.xdearboy.bookkeeper.database.converters;
+import androidx.room.TypeConverter;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import com.google.gson.reflect.TypeToken;
+import com.xdearboy.bookkeeper.model.Book;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+public class BookListConverter {
+    // Dates are stored as timestamps, like DateConverter does: the default Gson format depends on the locale
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(Date.class, (JsonSerializer<Date>) (date, type, context) ->
+                    new JsonPrimitive(date.getTime()))
+            .registerTypeAdapter(Date.class, (JsonDeserializer<Date>) (json, type, context) ->
+                    new Date(json.getAsLong()))
+            .create();
+    @TypeConverter
+    public static List<Book> fromString(String value) {
+        if (value == null) {
+            return new ArrayList<>();
+        }
+        Type listType = new TypeToken<List<Book>>() {}.getType();
+        return gson.fromJson(value, listType);
+    }
+    @TypeConverter
+    public static String fromList(List<Book> list) {
+        if (list == null) {
+            return null;
+        }
+        return gson.toJson(list);
+    }
+}
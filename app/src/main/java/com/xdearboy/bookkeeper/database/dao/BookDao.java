@@ -5,6 +5,7 @@ import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 import com.xdearboy.bookkeeper.model.Book;
 import java.util.List;
@@ -14,6 +15,38 @@ public interface BookDao {
     void insert(Book book);
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertAll(List<Book> books);
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertAllIfAbsent(List<Book> books);
+    @Query("UPDATE books SET title = :title, author = :author, genre = :genre, " +
+           "description = CASE WHEN :description IS NULL OR :description = '' THEN description ELSE :description END, " +
+           "coverImageUrl = COALESCE(:coverImageUrl, coverImageUrl), isbn = COALESCE(:isbn, isbn), " +
+           "pageCount = CASE WHEN :pageCount > 0 THEN :pageCount ELSE pageCount END, " +
+           "publisher = COALESCE(:publisher, publisher), publishDate = COALESCE(:publishDate, publishDate), " +
+           "publishDatePrecision = CASE WHEN :publishDate IS NULL THEN publishDatePrecision ELSE :publishDatePrecision END, " +
+           "language = COALESCE(:language, language) WHERE id = :id")
+    void updateMetadata(String id, String title, String author, String genre, String description,
+                        String coverImageUrl, String isbn, int pageCount, String publisher, Long publishDate,
+                        int publishDatePrecision, String language);
+    /**
+     * Inserts new books and refreshes the catalogue fields of existing rows in place.
+     * Borrow state is kept, and empty values (e.g. the description of a list result) never
+     * overwrite stored ones.
+     */
+    @Transaction
+    default void upsertAll(List<Book> books) {
+        insertAllIfAbsent(books);
+        refreshAll(books);
+    }
+    /** Like {@link #upsertAll}, but only refreshes books that already have a row. */
+    @Transaction
+    default void refreshAll(List<Book> books) {
+        for (Book book : books) {
+            updateMetadata(book.getId(), book.getTitle(), book.getAuthor(), book.getGenre(),
+                    book.getDescription(), book.getCoverImageUrl(), book.getIsbn(), book.getPageCount(),
+                    book.getPublisher(), book.getPublishDate() != null ? book.getPublishDate().getTime() : null,
+                    book.getPublishDatePrecision(), book.getLanguage());
+        }
+    }
     @Update
     void update(Book book);
     @Delete
@@ -22,10 +55,16 @@ public interface BookDao {
     void deleteById(String bookId);
     @Query("SELECT * FROM books WHERE id = :bookId")
     LiveData<Book> getBookById(String bookId);
+    @Query("SELECT * FROM books WHERE id = :bookId")
+    Book getBookByIdSync(String bookId);
     @Query("SELECT * FROM books")
     LiveData<List<Book>> getAllBooks();
     @Query("SELECT * FROM books")
     List<Book> getAllBooksSync();
+    @Query("SELECT * FROM books WHERE id IN (:bookIds)")
+    List<Book> getBooksByIdsSync(List<String> bookIds);
+    @Query("SELECT * FROM books WHERE id IN (:bookIds)")
+    LiveData<List<Book>> getBooksByIds(List<String> bookIds);
     @Query("SELECT * FROM books WHERE borrowed = 0")
     LiveData<List<Book>> getAvailableBooks();
     @Query("SELECT * FROM books WHERE borrowed = 1")
@@ -36,4 +36,6 @@ public interface NotificationDao {
     void markAllAsRead(String userId);
     @Query("DELETE FROM notifications WHERE userId = :userId AND isRead = 1")
     void deleteAllReadNotifications(String userId);
+    @Query("UPDATE notifications SET bookId = :newBookId WHERE bookId = :oldBookId")
+    void updateBookId(String oldBookId, String newBookId);
 } 
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.xdearboy.bookkeeper.database.dao;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import com.xdearboy.bookkeeper.model.CachedSearchResult;
+import java.util.List;
+@Dao
+public interface SearchResultDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(CachedSearchResult result);
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<CachedSearchResult> results);
+    @Query("SELECT * FROM search_results WHERE cacheKey = :cacheKey")
+    CachedSearchResult getByKey(String cacheKey);
+    @Query("SELECT * FROM search_results WHERE cacheKey IN (:cacheKeys)")
+    List<CachedSearchResult> getByKeys(List<String> cacheKeys);
+    @Query("DELETE FROM search_results WHERE cacheKey = :cacheKey")
+    void deleteByKey(String cacheKey);
+    @Query("DELETE FROM search_results WHERE fetchedAt < :threshold")
+    void deleteOlderThan(long threshold);
+    @Query("DELETE FROM search_results")
+    void deleteAll();
+}
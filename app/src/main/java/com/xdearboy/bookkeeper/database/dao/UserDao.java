@@ -22,6 +22,8 @@ public interface UserDao {
     LiveData<User> getUserById(String userId);
     @Query("SELECT * FROM users")
     LiveData<List<User>> getAllUsers();
+    @Query("SELECT * FROM users")
+    List<User> getAllUsersSync();
     @Query("SELECT * FROM users WHERE email = :email LIMIT 1")
     User getUserByEmail(String email);
     @Query("SELECT * FROM users WHERE email = :email AND password = :passwordHash LIMIT 1")
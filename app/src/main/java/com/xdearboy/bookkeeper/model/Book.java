@@ -27,6 +27,7 @@ public class Book implements Parcelable {
     private int pageCount;
     private String publisher;
     private Date publishDate;
+    private int publishDatePrecision; // PublishDateParser.PRECISION_*, 0 if unknown
     private String language;
     private boolean isFromApi;
     public Book() {
@@ -71,6 +72,7 @@ public class Book implements Parcelable {
         publisher = in.readString();
         long tmpPublishDate = in.readLong();
         publishDate = tmpPublishDate != -1 ? new Date(tmpPublishDate) : null;
+        publishDatePrecision = in.readInt();
         language = in.readString();
         isFromApi = in.readByte() != 0;
     }
@@ -90,6 +92,7 @@ public class Book implements Parcelable {
         dest.writeInt(pageCount);
         dest.writeString(publisher);
         dest.writeLong(publishDate != null ? publishDate.getTime() : -1);
+        dest.writeInt(publishDatePrecision);
         dest.writeString(language);
         dest.writeByte((byte) (isFromApi ? 1 : 0));
     }
@@ -192,6 +195,12 @@ public class Book implements Parcelable {
     public void setPublishDate(Date publishDate) {
         this.publishDate = publishDate;
     }
+    public int getPublishDatePrecision() {
+        return publishDatePrecision;
+    }
+    public void setPublishDatePrecision(int publishDatePrecision) {
+        this.publishDatePrecision = publishDatePrecision;
+    }
     public String getLanguage() {
         return language;
     }
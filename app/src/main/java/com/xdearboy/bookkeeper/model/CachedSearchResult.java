@@ -0,0 +1,58 @@
+package com.xdearboy.bookkeeper.model;
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.PrimaryKey;
+import androidx.room.TypeConverters;
+import com.xdearboy.bookkeeper.database.converters.BookListConverter;
+import java.util.List;
+/**
+ * Persisted search result: the normalized query (and page) mapped to the books it
+ * returned, in order. The books are kept in the row rather than in the books table,
+ * so they never show up in the library and are deleted together with the entry.
+ * requestedCount is how many results were asked for; the entry also answers smaller requests.
+ */
+@Entity(tableName = "search_results")
+@TypeConverters(BookListConverter.class)
+public class CachedSearchResult {
+    @PrimaryKey
+    @NonNull
+    private String cacheKey;
+    private List<Book> books;
+    private long fetchedAt;
+    private int requestedCount;
+    public CachedSearchResult() {
+    }
+    @Ignore
+    public CachedSearchResult(@NonNull String cacheKey, List<Book> books, long fetchedAt, int requestedCount) {
+        this.cacheKey = cacheKey;
+        this.books = books;
+        this.fetchedAt = fetchedAt;
+        this.requestedCount = requestedCount;
+    }
+    @NonNull
+    public String getCacheKey() {
+        return cacheKey;
+    }
+    public void setCacheKey(@NonNull String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+    public List<Book> getBooks() {
+        return books;
+    }
+    public void setBooks(List<Book> books) {
+        this.books = books;
+    }
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+    public void setFetchedAt(long fetchedAt) {
+        this.fetchedAt = fetchedAt;
+    }
+    public int getRequestedCount() {
+        return requestedCount;
+    }
+    public void setRequestedCount(int requestedCount) {
+        this.requestedCount = requestedCount;
+    }
+}
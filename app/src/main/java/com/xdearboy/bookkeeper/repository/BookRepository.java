@@ -3,13 +3,15 @@ package com.xdearboy.bookkeeper.repository;
 import android.app.Application;
 import androidx.lifecycle.LiveData;
 import com.xdearboy.bookkeeper.api.BookApiClient;
+import com.xdearboy.bookkeeper.api.QuotaGuard;
+import com.xdearboy.bookkeeper.api.SearchHandle;
 import com.xdearboy.bookkeeper.database.AppDatabase;
 import com.xdearboy.bookkeeper.database.dao.BookDao;
 import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.util.BookIdentity;
 import com.xdearboy.bookkeeper.util.Resource;
 
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -22,6 +24,7 @@ public class BookRepository {
     private final LiveData<List<Book>> localBooks;
     private final Executor executor;
     private final BookApiClient apiClient;
+    private final SearchRouter searchRouter;
 
     private static volatile BookRepository INSTANCE;
     
@@ -45,7 +48,8 @@ public class BookRepository {
         booksFromApi = bookDao.getBooksFromApi();
         localBooks = bookDao.getLocalBooks();
         executor = Executors.newSingleThreadExecutor();
-        apiClient = new BookApiClient();
+        apiClient = new BookApiClient(application);
+        searchRouter = new SearchRouter(application, bookDao, apiClient, executor);
     }
 
     public LiveData<List<Book>> getAllBooks() {
@@ -68,6 +72,10 @@ public class BookRepository {
         return localBooks;
     }
 
+    public LiveData<List<Book>> getBooksByIds(List<String> bookIds) {
+        return bookDao.getBooksByIds(bookIds);
+    }
+
     public LiveData<Book> getBookById(String bookId) {
         return bookDao.getBookById(bookId);
     }
@@ -77,14 +85,16 @@ public class BookRepository {
     }
 
     public void insert(Book book) {
-        if (book.getId() == null || book.getId().isEmpty()) {
-            book.setId(UUID.randomUUID().toString());
-        }
+        book.setId(BookIdentity.stableId(book));
         executor.execute(() -> bookDao.insert(book));
     }
 
+    /** Upserts by stable id: known books are refreshed in place, borrow state is kept. */
     public void insertAll(List<Book> books) {
-        executor.execute(() -> bookDao.insertAll(books));
+        for (Book book : books) {
+            book.setId(BookIdentity.stableId(book));
+        }
+        executor.execute(() -> bookDao.upsertAll(books));
     }
 
     public void update(Book book) {
@@ -160,19 +170,92 @@ public class BookRepository {
         void onSearchResult(List<Book> books);
     }
 
-    public void searchBooksFromApi(String query, OnApiSearchResultCallback callback) {
-        apiClient.searchBooks(query, new BookApiClient.OnSearchResultCallback() {
+    public SearchHandle searchBooksFromApi(String query, OnApiSearchResultCallback callback) {
+        return apiClient.searchBooks(query, asApiSearchCallback(callback));
+    }
+
+    /**
+     * Search for the search screen: local matches are delivered right away, results from
+     * the API (or, offline, from earlier cached searches) are merged in when they arrive.
+     * A later call supersedes the previous search. Called back on a background thread.
+     */
+    public SearchHandle routeSearch(String query, OnRoutedSearchCallback callback) {
+        return searchRouter.search(query, callback::onResults);
+    }
+
+    public interface OnRoutedSearchCallback {
+        void onResults(List<Book> books, boolean complete);
+    }
+
+    private static BookApiClient.OnSearchResultCallback asApiSearchCallback(OnApiSearchResultCallback callback) {
+        return new BookApiClient.OnSearchResultCallback() {
+            @Override
             public void onSuccess(List<Book> books) {
                 callback.onResult(Resource.success(books));
             }
 
+            @Override
             public void onError(String message) {
                 callback.onResult(Resource.error(message, null));
             }
-        });
+        };
+    }
+
+    /**
+     * Loads one page of API results. The following pages are prefetched in the background,
+     * so the next call for the same query is usually answered from the cache.
+     */
+    public void loadBooksPage(String query, int page, OnApiSearchResultCallback callback) {
+        apiClient.loadBooksPage(query, page, asApiSearchCallback(callback));
+    }
+
+    /** Starts loading a page of API results into the cache ahead of {@link #loadBooksPage}. */
+    public void prefetchBooksPage(String query, int page) {
+        apiClient.prefetchBooksPage(query, page);
+    }
+
+    public LiveData<QuotaGuard.State> getApiQuotaState() {
+        return apiClient.getQuotaState();
     }
 
     public interface OnApiSearchResultCallback {
         void onResult(Resource<List<Book>> result);
     }
+
+    /**
+     * Fetches the full (details profile) volume for a book that came from a list search
+     * and stores the description in the local copy, if there is one.
+     */
+    public void loadBookDetails(String bookId, OnApiBookResultCallback callback) {
+        apiClient.getBookDetails(bookId, new BookApiClient.OnBookResultCallback() {
+            @Override
+            public void onSuccess(Book book) {
+                executor.execute(() -> {
+                    Book existing = bookDao.getBookByIdSync(bookId);
+                    if (existing != null) {
+                        existing.setDescription(book.getDescription());
+                        bookDao.update(existing);
+                    }
+                    callback.onResult(Resource.success(book));
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                callback.onResult(Resource.error(message, null));
+            }
+        });
+    }
+
+    /**
+     * Loads the given books in one batch: complete local rows are used as they are, the rest
+     * are fetched from the API and stored. The result keeps the order of the ids.
+     */
+    public void hydrateBooks(List<String> bookIds, OnApiSearchResultCallback callback) {
+        apiClient.hydrateBooks(bookIds, asApiSearchCallback(callback));
+    }
+
+    public interface OnApiBookResultCallback {
+        void onResult(Resource<Book> result);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,244 @@
+package com.xdearboy.bookkeeper.repository;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.xdearboy.bookkeeper.api.BookApiClient;
+import com.xdearboy.bookkeeper.api.QuotaGuard;
+import com.xdearboy.bookkeeper.api.SearchHandle;
+import com.xdearboy.bookkeeper.database.dao.BookDao;
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.util.NetworkUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decides where a search is answered from. The local books table is always searched and
+ * its results are delivered as soon as they are ready. Remote results come from the live
+ * API when it is usable, otherwise (offline, quota exhausted, or most recent API searches
+ * failed) from the cached results of earlier searches, which takes milliseconds instead
+ * of a network timeout. Remote results are merged in after the local ones; a live search
+ * streams them, so the first API response shows up before the last query variant returns.
+ */
+class SearchRouter {
+    private static final String TAG = "SearchRouter";
+
+    private static final int OUTCOME_WINDOW = 5;
+    private static final int FAILURES_TO_AVOID_LIVE = 3;
+    private static final long AVOID_LIVE_MS = 30 * 1000L;
+    private static final int REMOTE_RESULTS = 20;
+
+    interface Listener {
+        /**
+         * Called with the merged results so far; {@code complete} is set on the last call.
+         * Never called after the returned handle is cancelled.
+         */
+        void onResults(List<Book> books, boolean complete);
+    }
+
+    private enum Route {
+        LIVE,
+        CACHED
+    }
+
+    private final BooleanSupplier online;
+    private final BookDao bookDao;
+    private final BookApiClient apiClient;
+    private final Executor executor;
+
+    // Guarded by this: outcomes of the last live searches, true = failed
+    private final boolean[] recentFailures = new boolean[OUTCOME_WINDOW];
+    private int nextOutcome;
+    private long avoidLiveUntil;
+    private SearchHandle latestLive;
+
+    SearchRouter(Context context, BookDao bookDao, BookApiClient apiClient, Executor executor) {
+        this(() -> NetworkUtils.isNetworkAvailable(context.getApplicationContext()), bookDao, apiClient, executor);
+    }
+
+    /** @param online whether the device has a network; replaces the connectivity check in JVM tests */
+    SearchRouter(BooleanSupplier online, BookDao bookDao, BookApiClient apiClient, Executor executor) {
+        this.online = online;
+        this.bookDao = bookDao;
+        this.apiClient = apiClient;
+        this.executor = executor;
+    }
+
+    /** Starts a search; a search started later through this router supersedes it. */
+    SearchHandle search(String query, Listener listener) {
+        Route route = chooseRoute();
+        RoutedSearch search = new RoutedSearch(listener);
+        executor.execute(() -> {
+            List<Book> found;
+            try {
+                found = bookDao.searchBooksExtended(query);
+            } catch (Exception e) {
+                Log.e(TAG, "Ошибка локального поиска: " + e.getMessage());
+                found = new ArrayList<>();
+            }
+            search.onLocal(found);
+        });
+        // SQLite LIKE only folds ASCII case, so the local search keeps the typed case;
+        // the API ignores case, and a lower-cased query shares its cache entries
+        String remoteQuery = query.toLowerCase(Locale.ROOT);
+        if (route == Route.CACHED) {
+            Log.d(TAG, "Поиск без обращения к API: " + query);
+            apiClient.searchCachedOnly(remoteQuery, search.remoteCallback(null));
+            search.handle = SearchHandle.completed();
+        } else {
+            search.handle = apiClient.searchBooks(remoteQuery, REMOTE_RESULTS, search.remoteCallback(remoteQuery));
+        }
+        supersede(route == Route.LIVE ? search.handle : null);
+        return search.handle;
+    }
+
+    private void supersede(SearchHandle live) {
+        SearchHandle superseded;
+        synchronized (this) {
+            superseded = latestLive;
+            latestLive = live;
+        }
+        if (superseded != null) {
+            superseded.cancel();
+        }
+    }
+
+    private Route chooseRoute() {
+        if (!online.getAsBoolean() || QuotaGuard.getInstance().isOpen()) {
+            return Route.CACHED;
+        }
+        synchronized (this) {
+            return SystemClock.elapsedRealtime() < avoidLiveUntil ? Route.CACHED : Route.LIVE;
+        }
+    }
+
+    private synchronized void recordLiveOutcome(boolean failed) {
+        recentFailures[nextOutcome] = failed;
+        nextOutcome = (nextOutcome + 1) % OUTCOME_WINDOW;
+        if (!failed) {
+            return;
+        }
+        int failures = 0;
+        for (boolean outcome : recentFailures) {
+            if (outcome) {
+                failures++;
+            }
+        }
+        if (failures >= FAILURES_TO_AVOID_LIVE) {
+            Log.w(TAG, "API недоступно, ищем по кэшу ближайшие " + AVOID_LIVE_MS / 1000 + " с");
+            avoidLiveUntil = SystemClock.elapsedRealtime() + AVOID_LIVE_MS;
+            // Start the next window afresh, so one more failure does not extend the pause
+            Arrays.fill(recentFailures, false);
+        }
+    }
+
+    private final class RoutedSearch {
+        private final Listener listener;
+        volatile SearchHandle handle;
+        // Guarded by this
+        private List<Book> local;
+        private List<Book> remote;
+        private boolean remoteDone;
+
+        RoutedSearch(Listener listener) {
+            this.listener = listener;
+        }
+
+        /** @param liveQuery the query sent to the API, or null if the results come from the cache */
+        BookApiClient.StreamingSearchCallback remoteCallback(String liveQuery) {
+            return new BookApiClient.StreamingSearchCallback() {
+                @Override
+                public void onPartial(List<Book> books) {
+                    onRemote(books, false);
+                }
+
+                @Override
+                public void onSuccess(List<Book> books) {
+                    if (liveQuery != null) {
+                        recordLiveOutcome(false);
+                    }
+                    onRemote(books, true);
+                }
+
+                @Override
+                public void onError(String message) {
+                    if (liveQuery == null) {
+                        onRemote(new ArrayList<>(), true);
+                        return;
+                    }
+                    // A failure remembered by the client was already counted when it happened
+                    if (!BookApiClient.isRememberedFailure(message)) {
+                        recordLiveOutcome(true);
+                    }
+                    if (completeWithPartial()) {
+                        Log.w(TAG, "Поиск в API прерван, оставляем полученные результаты: " + message);
+                        return;
+                    }
+                    Log.w(TAG, "Поиск в API не удался, берём результаты из кэша: " + message);
+                    apiClient.searchCachedOnly(liveQuery, remoteCallback(null));
+                }
+            };
+        }
+
+        // Delivered under the lock so that a partial result never overtakes the complete one
+        synchronized void onLocal(List<Book> books) {
+            local = books;
+            deliver(merge(), remoteDone);
+        }
+
+        synchronized void onRemote(List<Book> books, boolean done) {
+            if (remoteDone) {
+                return;
+            }
+            remote = books;
+            remoteDone = done;
+            // Until the local part is in, remote results are held back so local ones come first
+            if (local != null) {
+                deliver(merge(), done);
+            }
+        }
+
+        /** Completes with the partial remote results, if there are any. */
+        synchronized boolean completeWithPartial() {
+            if (remote == null || remoteDone) {
+                return false;
+            }
+            remoteDone = true;
+            if (local != null) {
+                deliver(merge(), true);
+            }
+            return true;
+        }
+
+        // Caller holds the lock
+        private List<Book> merge() {
+            List<Book> merged = new ArrayList<>();
+            Set<String> ids = new HashSet<>();
+            for (List<Book> part : Arrays.asList(local, remote)) {
+                if (part == null) {
+                    continue;
+                }
+                for (Book book : part) {
+                    if (ids.add(book.getId())) {
+                        merged.add(book);
+                    }
+                }
+            }
+            return merged;
+        }
+
+        private void deliver(List<Book> books, boolean complete) {
+            SearchHandle current = handle;
+            if (current != null && current.isCancelled()) {
+                return;
+            }
+            listener.onResults(books, complete);
+        }
+    }
+}
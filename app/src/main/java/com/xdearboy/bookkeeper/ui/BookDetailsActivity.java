@@ -16,6 +16,8 @@ import com.xdearboy.bookkeeper.model.Book;
 import com.xdearboy.bookkeeper.repository.BookRepository;
 import com.xdearboy.bookkeeper.repository.UserRepository;
 import com.xdearboy.bookkeeper.model.User;
+import com.xdearboy.bookkeeper.util.PublishDateParser;
+import com.xdearboy.bookkeeper.util.Resource;
 import com.xdearboy.bookkeeper.util.SessionManager;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
@@ -42,8 +44,27 @@ public class BookDetailsActivity extends AppCompatActivity {
         if (book != null) {
             displayBookDetails(book);
             setupBorrowButton();
+            loadFullDetailsIfNeeded();
         }
     }
+    private void loadFullDetailsIfNeeded() {
+        // Книги из поиска загружаются без описания, догружаем полный профиль по требованию
+        if (!book.isFromApi() || (book.getDescription() != null && !book.getDescription().isEmpty())) {
+            return;
+        }
+        BookRepository.getInstance(getApplication()).loadBookDetails(book.getId(), result -> {
+            if (result.status != Resource.Status.SUCCESS || result.data == null) {
+                return;
+            }
+            runOnUiThread(() -> {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                book.setDescription(result.data.getDescription());
+                displayBookDetails(book);
+            });
+        });
+    }
     private void initViews() {
         toolbar = findViewById(R.id.toolbar);
         collapsingToolbar = findViewById(R.id.collapsingToolbar);
@@ -86,7 +107,8 @@ public class BookDetailsActivity extends AppCompatActivity {
         }
         bookGenre.setText(getString(R.string.genre_format, book.getGenre()));
         if (book.getPublishDate() != null) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("dd MMMM yyyy", new Locale("ru"));
+            SimpleDateFormat dateFormat = new SimpleDateFormat(publishDatePattern(book.getPublishDatePrecision()),
+                    new Locale("ru"));
             String formattedDate = dateFormat.format(book.getPublishDate());
             bookPublishDate.setText(getString(R.string.publish_date_format, formattedDate));
         } else {
@@ -99,6 +121,16 @@ public class BookDetailsActivity extends AppCompatActivity {
             bookGenreChip.setVisibility(View.GONE);
         }
     }
+    private static String publishDatePattern(int precision) {
+        switch (precision) {
+            case PublishDateParser.PRECISION_YEAR:
+                return "yyyy";
+            case PublishDateParser.PRECISION_MONTH:
+                return "LLLL yyyy";
+            default:
+                return "dd MMMM yyyy";
+        }
+    }
     private void setupBorrowButton() {
         String userId = SessionManager.getInstance(this).getUserId();
         BookRepository bookRepo = BookRepository.getInstance(getApplication());
@@ -1,5 +1,7 @@
 package com.xdearboy.bookkeeper.ui.dashboard;
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -18,16 +20,20 @@ public class DashboardViewModel extends AndroidViewModel {
     private final BookRepository bookRepository;
     private final MutableLiveData<User> currentUser;
     private final MutableLiveData<List<Book>> borrowedBooks;
-    private final Map<String, LiveData<Book>> bookLiveDataMap;
-    private final Map<String, Observer<Book>> bookObserversMap;
+    // Состояние ниже меняется только в главном потоке
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Observer<List<Book>> borrowedRowsObserver = this::onBorrowedRowsChanged;
+    private LiveData<List<Book>> borrowedRows;
+    private List<String> borrowedIds = new ArrayList<>();
+    // Догруженные книги, у которых нет своей строки в базе
+    private Map<String, Book> hydratedBooks = new HashMap<>();
+    private int loadGeneration;
     public DashboardViewModel(Application application) {
         super(application);
         userRepository = UserRepository.getInstance(application);
         bookRepository = BookRepository.getInstance(application);
         currentUser = new MutableLiveData<>();
         borrowedBooks = new MutableLiveData<>(new ArrayList<>());
-        bookLiveDataMap = new HashMap<>();
-        bookObserversMap = new HashMap<>();
         loadCurrentUser();
     }
     private void loadCurrentUser() {
@@ -47,41 +53,52 @@ public class DashboardViewModel extends AndroidViewModel {
         User user = currentUser.getValue();
         if (user != null) {
             List<String> borrowedBookIds = user.getBorrowedBookIdsList();
+            int generation = ++loadGeneration;
+            stopObservingBorrowedRows();
             if (borrowedBookIds == null || borrowedBookIds.isEmpty()) {
                 borrowedBooks.setValue(new ArrayList<>());
                 return;
             }
-            for (Map.Entry<String, Observer<Book>> entry : bookObserversMap.entrySet()) {
-                LiveData<Book> bookLiveData = bookLiveDataMap.get(entry.getKey());
-                if (bookLiveData != null) {
-                    bookLiveData.removeObserver(entry.getValue());
+            // Одним пакетом: книги из базы сразу, недостающие подробности догружаются параллельно
+            bookRepository.hydrateBooks(borrowedBookIds, result -> mainHandler.post(() -> {
+                if (generation == loadGeneration && result.data != null) {
+                    observeBorrowedRows(borrowedBookIds, result.data);
                 }
+            }));
+        }
+    }
+    // После догрузки список следит за строками книг, так что возврат или обновлённые
+    // подробности видны без повторной загрузки
+    private void observeBorrowedRows(List<String> ids, List<Book> hydrated) {
+        borrowedIds = ids;
+        hydratedBooks = new HashMap<>();
+        for (Book book : hydrated) {
+            hydratedBooks.put(book.getId(), book);
+        }
+        borrowedRows = bookRepository.getBooksByIds(ids);
+        borrowedRows.observeForever(borrowedRowsObserver);
+    }
+    private void onBorrowedRowsChanged(List<Book> rows) {
+        Map<String, Book> byId = new HashMap<>(hydratedBooks);
+        if (rows != null) {
+            for (Book row : rows) {
+                byId.put(row.getId(), row);
             }
-            bookLiveDataMap.clear();
-            bookObserversMap.clear();
-            final List<Book> books = new ArrayList<>();
-            final int[] booksToLoad = {borrowedBookIds.size()};
-            for (String bookId : borrowedBookIds) {
-                LiveData<Book> bookLiveData = bookRepository.getBookById(bookId);
-                Observer<Book> bookObserver = new Observer<Book>() {
-                    @Override
-                    public void onChanged(Book book) {
-                        if (book != null) {
-                            if (!books.contains(book)) {
-                                books.add(book);
-                            }
-                            booksToLoad[0]--;
-                            if (booksToLoad[0] <= 0) {
-                                borrowedBooks.setValue(books);
-                            }
-                        }
-                    }
-                };
-                bookLiveDataMap.put(bookId, bookLiveData);
-                bookObserversMap.put(bookId, bookObserver);
-                bookLiveData.observeForever(bookObserver);
+        }
+        List<Book> books = new ArrayList<>(borrowedIds.size());
+        for (String id : borrowedIds) {
+            Book book = byId.get(id);
+            if (book != null) {
+                books.add(book);
             }
         }
+        borrowedBooks.setValue(books);
+    }
+    private void stopObservingBorrowedRows() {
+        if (borrowedRows != null) {
+            borrowedRows.removeObserver(borrowedRowsObserver);
+            borrowedRows = null;
+        }
     }
     public LiveData<User> getCurrentUser() {
         return currentUser;
@@ -103,11 +120,7 @@ public class DashboardViewModel extends AndroidViewModel {
     @Override
     protected void onCleared() {
         super.onCleared();
-        for (Map.Entry<String, Observer<Book>> entry : bookObserversMap.entrySet()) {
-            LiveData<Book> bookLiveData = bookLiveDataMap.get(entry.getKey());
-            if (bookLiveData != null) {
-                bookLiveData.removeObserver(entry.getValue());
-            }
-        }
+        loadGeneration++;
+        stopObservingBorrowedRows();
     }
 }
\ No newline at end of file
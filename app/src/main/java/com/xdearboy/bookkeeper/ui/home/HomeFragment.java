@@ -23,6 +23,7 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import com.google.android.material.snackbar.Snackbar;
 import com.xdearboy.bookkeeper.R;
 import com.xdearboy.bookkeeper.adapter.BookAdapter;
+import com.xdearboy.bookkeeper.api.QuotaGuard;
 import com.xdearboy.bookkeeper.databinding.FragmentHomeBinding;
 import com.xdearboy.bookkeeper.model.Book;
 import com.xdearboy.bookkeeper.util.NetworkUtils;
@@ -50,7 +51,7 @@ public class HomeFragment extends Fragment implements BookAdapter.OnBookClickLis
         setupSwipeRefresh();
         observeViewModel();
         if (!NetworkUtils.isNetworkAvailable(requireContext())) {
-            showNetworkError();
+            showOfflineMode();
         }
         return root;
     }
@@ -154,11 +155,10 @@ public class HomeFragment extends Fragment implements BookAdapter.OnBookClickLis
     private void observeViewModel() {
         homeViewModel.getBooks().observe(getViewLifecycleOwner(), books -> {
             bookAdapter.submitList(books);
-            binding.progressBar.setVisibility(View.GONE);
-        });
-        homeViewModel.isLoading().observe(getViewLifecycleOwner(), isLoading -> {
-            binding.progressBar.setVisibility(isLoading ? View.VISIBLE : View.GONE);
+            updateProgressBar();
         });
+        homeViewModel.isLoading().observe(getViewLifecycleOwner(), isLoading -> updateProgressBar());
+        homeViewModel.getIsSearching().observe(getViewLifecycleOwner(), isSearching -> updateProgressBar());
         homeViewModel.getSearchResults().observe(getViewLifecycleOwner(), books -> {
             Log.d("HomeFragment", "Search results observed: " + (books != null ? books.size() : 0) + " books");
             updateBooksUI(books);
@@ -178,6 +178,20 @@ public class HomeFragment extends Fragment implements BookAdapter.OnBookClickLis
                 Log.d("HomeFragment", "Обнаружена ошибка сети");
             }
         });
+        homeViewModel.getApiQuotaState().observe(getViewLifecycleOwner(), state -> {
+            if (state == QuotaGuard.State.LIMITED) {
+                binding.progressBar.setVisibility(View.GONE);
+                binding.swipeRefreshLayout.setRefreshing(false);
+                showQuotaLimited();
+                Log.d("HomeFragment", "Квота API исчерпана, работаем с сохранёнными данными");
+            }
+        });
+    }
+    // Загрузка списка и поиск делят один индикатор: он скрывается, когда закончены оба
+    private void updateProgressBar() {
+        boolean busy = Boolean.TRUE.equals(homeViewModel.isLoading().getValue())
+                || Boolean.TRUE.equals(homeViewModel.getIsSearching().getValue());
+        binding.progressBar.setVisibility(busy ? View.VISIBLE : View.GONE);
     }
     private void updateBooksUI(List<Book> books) {
         Log.d("HomeFragment", "Обновление UI: получено книг: " + (books != null ? books.size() : 0));
@@ -217,6 +231,13 @@ public class HomeFragment extends Fragment implements BookAdapter.OnBookClickLis
         });
         snackbar.show();
     }
+    // Поиск без сети работает по локальной базе и сохранённым результатам
+    private void showOfflineMode() {
+        Snackbar.make(binding.getRoot(), R.string.offline_search_local, Snackbar.LENGTH_LONG).show();
+    }
+    private void showQuotaLimited() {
+        Snackbar.make(binding.getRoot(), R.string.api_quota_limited, Snackbar.LENGTH_LONG).show();
+    }
     @Override
     public void onBookClick(Book book) {
         Intent intent = new Intent(getContext(), BookDetailsActivity.class);
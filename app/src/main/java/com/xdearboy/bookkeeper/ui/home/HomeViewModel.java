@@ -1,14 +1,24 @@
 package com.xdearboy.bookkeeper.ui.home;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import com.xdearboy.bookkeeper.api.QuotaGuard;
+import com.xdearboy.bookkeeper.api.SearchHandle;
 import com.xdearboy.bookkeeper.model.Book;
 import com.xdearboy.bookkeeper.repository.BookRepository;
+import com.xdearboy.bookkeeper.util.Constants;
+import com.xdearboy.bookkeeper.util.Resource;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 public class HomeViewModel extends AndroidViewModel {
 
@@ -22,6 +32,25 @@ public class HomeViewModel extends AndroidViewModel {
     private final MutableLiveData<List<Book>> searchResults = new MutableLiveData<>();
     private final MutableLiveData<List<Book>> books = new MutableLiveData<>();
     private final MutableLiveData<Integer> mainListPage = new MutableLiveData<>(1);
+    // The first search returns 20 books, i.e. API pages 0 and 1
+    private static final int FIRST_EXTRA_SEARCH_PAGE = 2;
+    private SearchHandle activeApiSearch;
+
+    // Search-as-you-type: queries are dispatched only after a pause in typing.
+    // All of the state below is touched on the main thread only.
+    private static final long DEFAULT_SEARCH_DEBOUNCE_MS = 300;
+    private static final int DEFAULT_MIN_QUERY_LENGTH = 2;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable dispatchPendingQuery = this::dispatchPendingQuery;
+    private long searchDebounceMs = DEFAULT_SEARCH_DEBOUNCE_MS;
+    private int minQueryLength = DEFAULT_MIN_QUERY_LENGTH;
+    private String pendingQuery;
+    private String lastDispatchedKey;
+    private int searchGeneration;
+    // Query of the results on screen, paged on scroll; null when there are none
+    private String pagedQuery;
+    private int nextSearchPage = FIRST_EXTRA_SEARCH_PAGE;
 
     public HomeViewModel(Application application) {
         super(application);
@@ -49,8 +78,92 @@ public class HomeViewModel extends AndroidViewModel {
         return searchQuery;
     }
 
+    /**
+     * Feeds the search stream. The query is trimmed and its whitespace collapsed; it is
+     * dispatched once typing pauses for the debounce interval, unless it is shorter than
+     * the minimum length or equals (ignoring case) the query dispatched last.
+     */
     public void setSearchQuery(String query) {
         searchQuery.setValue(query);
+        searchHandler.removeCallbacks(dispatchPendingQuery);
+        String normalized = normalizeQuery(query);
+        if (normalized.length() < minQueryLength) {
+            pendingQuery = null;
+            lastDispatchedKey = null;
+            cancelRunningSearch();
+            // Results of the previous query no longer match what is typed
+            List<Book> shown = searchResults.getValue();
+            if (shown != null && !shown.isEmpty()) {
+                searchResults.setValue(new ArrayList<>());
+            }
+            return;
+        }
+        pendingQuery = normalized;
+        searchHandler.postDelayed(dispatchPendingQuery, searchDebounceMs);
+    }
+
+    public void setSearchDebounceMs(long debounceMs) {
+        searchDebounceMs = Math.max(0, debounceMs);
+    }
+
+    public void setMinQueryLength(int length) {
+        minQueryLength = Math.max(1, length);
+    }
+
+    private static String normalizeQuery(String query) {
+        return query == null ? "" : WHITESPACE.matcher(query.trim()).replaceAll(" ");
+    }
+
+    private void dispatchPendingQuery() {
+        String query = pendingQuery;
+        pendingQuery = null;
+        if (query == null) {
+            return;
+        }
+        String key = query.toLowerCase(Locale.ROOT);
+        if (key.equals(lastDispatchedKey)) {
+            return;
+        }
+        lastDispatchedKey = key;
+        dispatchSearch(query);
+    }
+
+    // Local results are shown first; the repository's router merges in remote ones as each
+    // API response lands, and searchResults is updated on every delivery, not only the last
+    private void dispatchSearch(String query) {
+        cancelRunningSearch();
+        int generation = searchGeneration;
+        pagedQuery = query;
+        nextSearchPage = FIRST_EXTRA_SEARCH_PAGE;
+        isSearching.setValue(true);
+        activeApiSearch = bookRepository.routeSearch(query, (found, complete) ->
+                searchHandler.post(() -> onSearchResults(generation, query, found, complete)));
+    }
+
+    private void onSearchResults(int generation, String query, List<Book> found, boolean complete) {
+        if (generation != searchGeneration) {
+            return;
+        }
+        searchResults.setValue(found);
+        if (complete) {
+            isSearching.setValue(false);
+            // The first scroll to the end then finds the next page already loaded
+            if (found != null && found.size() >= FIRST_EXTRA_SEARCH_PAGE * Constants.PAGE_SIZE) {
+                bookRepository.prefetchBooksPage(query, FIRST_EXTRA_SEARCH_PAGE);
+            }
+        }
+    }
+
+    private void cancelRunningSearch() {
+        searchGeneration++;
+        pagedQuery = null;
+        if (activeApiSearch != null) {
+            activeApiSearch.cancel();
+            activeApiSearch = null;
+        }
+        if (Boolean.TRUE.equals(isSearching.getValue())) {
+            isSearching.setValue(false);
+        }
     }
 
     public LiveData<Boolean> getIsSearching() {
@@ -85,6 +198,10 @@ public class HomeViewModel extends AndroidViewModel {
         return isNetworkError;
     }
     
+    public LiveData<QuotaGuard.State> getApiQuotaState() {
+        return bookRepository.getApiQuotaState();
+    }
+    
     public LiveData<Integer> getMainListPage() {
         return mainListPage;
     }
@@ -93,6 +210,11 @@ public class HomeViewModel extends AndroidViewModel {
         if (isLoadingMoreMainList.getValue() != null && isLoadingMoreMainList.getValue()) {
             return;
         }
+        List<Book> currentResults = searchResults.getValue();
+        if (pagedQuery != null && currentResults != null && !currentResults.isEmpty()) {
+            loadNextSearchPage();
+            return;
+        }
         
         isLoadingMoreMainList.setValue(true);
         int currentPage = mainListPage.getValue() != null ? mainListPage.getValue() : 1;
@@ -103,12 +225,51 @@ public class HomeViewModel extends AndroidViewModel {
         isLoadingMoreMainList.setValue(false);
     }
     
+    // Appends the next API page to the search results. The page is merged on the main thread,
+    // like routed results, and only into the search it was loaded for
+    private void loadNextSearchPage() {
+        if (Boolean.TRUE.equals(isSearching.getValue())) {
+            // Results are still arriving and the next delivery would replace the page
+            isLoadingMoreMainList.setValue(false);
+            return;
+        }
+        isLoadingMoreMainList.setValue(true);
+        int generation = searchGeneration;
+        int page = nextSearchPage;
+        bookRepository.loadBooksPage(pagedQuery, page, result ->
+                searchHandler.post(() -> onSearchPage(generation, page, result)));
+    }
+
+    private void onSearchPage(int generation, int page, Resource<List<Book>> result) {
+        isLoadingMoreMainList.setValue(false);
+        if (generation != searchGeneration || page != nextSearchPage) {
+            return;
+        }
+        if (result.status != Resource.Status.SUCCESS || result.data == null) {
+            // The page is asked for again on the next scroll
+            return;
+        }
+        List<Book> current = searchResults.getValue();
+        List<Book> merged = current != null ? new ArrayList<>(current) : new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (Book book : merged) {
+            ids.add(book.getId());
+        }
+        for (Book book : result.data) {
+            if (ids.add(book.getId())) {
+                merged.add(book);
+            }
+        }
+        nextSearchPage = page + 1;
+        searchResults.setValue(merged);
+    }
+    
     public void fetchBooksFromApi() {
         isLoading.setValue(true);
         isNetworkError.setValue(false);
         
         bookRepository.searchBooksFromApi("programming", result -> {
-            if (result.status == com.xdearboy.bookkeeper.util.Resource.Status.SUCCESS && result.data != null) {
+            if (result.status == Resource.Status.SUCCESS && result.data != null) {
                 List<Book> currentBooks = books.getValue();
                 if (currentBooks == null) {
                     currentBooks = new ArrayList<>();
@@ -126,9 +287,12 @@ public class HomeViewModel extends AndroidViewModel {
     }
     
     public void refreshSearchResults() {
-        String query = searchQuery.getValue();
-        if (query != null && !query.isEmpty()) {
-            searchBooks(query);
+        String query = normalizeQuery(searchQuery.getValue());
+        if (query.length() >= minQueryLength) {
+            searchHandler.removeCallbacks(dispatchPendingQuery);
+            pendingQuery = null;
+            lastDispatchedKey = query.toLowerCase(Locale.ROOT);
+            dispatchSearch(query);
         }
     }
 
@@ -140,14 +304,13 @@ public class HomeViewModel extends AndroidViewModel {
         });
     }
 
-    public void searchBooksFromApi(String query) {
-        isSearching.setValue(true);
-        bookRepository.searchBooksFromApi(query, result -> {
-            if (result.status == com.xdearboy.bookkeeper.util.Resource.Status.SUCCESS) {
-                searchResults.postValue(result.data);
-            }
-            isSearching.postValue(false);
-        });
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        searchHandler.removeCallbacks(dispatchPendingQuery);
+        if (activeApiSearch != null) {
+            activeApiSearch.cancel();
+        }
     }
 
     public void addBookToLibrary(Book book) {
@@ -0,0 +1,255 @@
+package com.xdearboy.bookkeeper.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.WorkerThread;
+import com.xdearboy.bookkeeper.database.AppDatabase;
+import com.xdearboy.bookkeeper.database.dao.BookDao;
+import com.xdearboy.bookkeeper.database.dao.UserDao;
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.model.User;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One-time cleanup of the books table after ids became stable. Earlier versions could store
+ * the same book several times under different ids. Among rows that are the same book by
+ * {@link BookIdentity}, unborrowed rows that came from the API are merged into the others
+ * and user references are moved to a kept row. Local rows are physical copies and borrowed
+ * rows carry a loan, so neither is ever removed. One kept row takes over the volume id of an
+ * API row instead, since the next upsert of that volume would otherwise add the duplicate
+ * back; from then on the API refreshes its catalogue fields.
+ */
+public final class BookCompaction {
+    private static final String TAG = "BookCompaction";
+    private static final String PREF_NAME = "BookKeeperMaintenance";
+    // v1 removed the API row and kept the copy, so later upserts added the duplicates back
+    private static final String KEY_BOOKS_COMPACTED = "books_compacted_v2";
+
+    private BookCompaction() {
+    }
+
+    /** Schedules the compaction on the database executor unless it has already run. */
+    public static void runOnce(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        if (prefs.getBoolean(KEY_BOOKS_COMPACTED, false)) {
+            return;
+        }
+        AppDatabase db = AppDatabase.getInstance(context);
+        AppDatabase.databaseWriteExecutor.execute(() -> {
+            try {
+                int removed = db.runInTransaction(() -> compact(db));
+                Log.d(TAG, "Удалено дубликатов книг: " + removed);
+                prefs.edit().putBoolean(KEY_BOOKS_COMPACTED, true).apply();
+            } catch (Exception e) {
+                Log.e(TAG, "Ошибка при объединении дубликатов книг", e);
+            }
+        });
+    }
+
+    /** @return the number of rows removed */
+    @WorkerThread
+    static int compact(AppDatabase db) {
+        BookDao bookDao = db.bookDao();
+        Map<String, Book> replacedBy = new HashMap<>();
+        for (List<Book> group : groupSameBooks(bookDao.getAllBooksSync())) {
+            if (group.size() < 2) {
+                continue;
+            }
+            Map<String, Book> groupReplacedBy = new HashMap<>();
+            List<Book> kept = mergeGroup(group, groupReplacedBy);
+            for (String id : groupReplacedBy.keySet()) {
+                bookDao.deleteById(id);
+            }
+            // A copy moved onto a volume id overwrites the API row stored under it
+            for (Book copy : kept) {
+                bookDao.update(copy);
+            }
+            replacedBy.putAll(groupReplacedBy);
+        }
+        if (replacedBy.isEmpty()) {
+            return 0;
+        }
+        remapUserReferences(db.userDao(), replacedBy);
+        for (Map.Entry<String, Book> entry : replacedBy.entrySet()) {
+            db.notificationDao().updateBookId(entry.getKey(), entry.getValue().getId());
+        }
+        return replacedBy.size();
+    }
+
+    /**
+     * Merges one group of the same book.
+     * @param replacedBy receives the ids of the rows to delete, mapped to the row replacing each
+     * @return the rows to update, with their final ids; empty if nothing changes
+     */
+    static List<Book> mergeGroup(List<Book> group, Map<String, Book> replacedBy) {
+        List<Book> kept = new ArrayList<>();
+        List<Book> removed = new ArrayList<>();
+        for (Book book : group) {
+            if (isRemovable(book)) {
+                removed.add(book);
+            } else {
+                kept.add(book);
+            }
+        }
+        if (removed.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Book target;
+        if (kept.isEmpty()) {
+            // Only API rows: the most complete one stays under its own volume id
+            target = pickCanonical(removed);
+            removed.remove(target);
+            kept.add(target);
+        } else {
+            target = pickCanonical(kept);
+            Book volumeRow = pickCanonical(removed);
+            removed.remove(volumeRow);
+            for (Book copy : kept) {
+                fillMissing(copy, volumeRow);
+            }
+            replacedBy.put(target.getId(), target);
+            target.setId(volumeRow.getId());
+        }
+        for (Book duplicate : removed) {
+            for (Book copy : kept) {
+                fillMissing(copy, duplicate);
+            }
+            replacedBy.put(duplicate.getId(), target);
+        }
+        return kept;
+    }
+
+    // An unborrowed row from the API is only a copy of the volume's metadata
+    static boolean isRemovable(Book book) {
+        return book.isFromApi() && !book.isBorrowed();
+    }
+
+    // Rows sharing any identity key end up in one group, also when they are linked only
+    // through a third row, e.g. one ISBN-less copy matching two others by title and author
+    static List<List<Book>> groupSameBooks(List<Book> books) {
+        int[] parent = new int[books.size()];
+        Map<String, Integer> firstWithKey = new HashMap<>();
+        for (int i = 0; i < books.size(); i++) {
+            parent[i] = i;
+            Book book = books.get(i);
+            for (String key : new String[] { BookIdentity.isbnKey(book), BookIdentity.titleAuthorKey(book) }) {
+                if (key == null) {
+                    continue;
+                }
+                Integer other = firstWithKey.putIfAbsent(key, i);
+                if (other != null) {
+                    parent[root(parent, i)] = root(parent, other);
+                }
+            }
+        }
+        Map<Integer, List<Book>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < books.size(); i++) {
+            List<Book> group = groups.get(root(parent, i));
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(root(parent, i), group);
+            }
+            group.add(books.get(i));
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    // A copy that is not on loan wins, so moved references never point at someone else's
+    // loan; then one that came from the API, then the most complete one
+    private static Book pickCanonical(List<Book> group) {
+        Book best = group.get(0);
+        for (Book candidate : group) {
+            if (rank(candidate) > rank(best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static int rank(Book book) {
+        int rank = 0;
+        if (!book.isBorrowed()) {
+            rank += 1000;
+        }
+        if (book.isFromApi()) {
+            rank += 100;
+        }
+        if (book.getDescription() != null && !book.getDescription().isEmpty()) {
+            rank += 10;
+        }
+        if (book.getCoverImageUrl() != null) {
+            rank += 1;
+        }
+        return rank;
+    }
+
+    private static void fillMissing(Book target, Book source) {
+        if (isEmpty(target.getDescription())) {
+            target.setDescription(source.getDescription());
+        }
+        if (isEmpty(target.getCoverImageUrl())) {
+            target.setCoverImageUrl(source.getCoverImageUrl());
+        }
+        if (isEmpty(target.getIsbn())) {
+            target.setIsbn(source.getIsbn());
+        }
+        if (isEmpty(target.getPublisher())) {
+            target.setPublisher(source.getPublisher());
+        }
+        if (isEmpty(target.getLanguage())) {
+            target.setLanguage(source.getLanguage());
+        }
+        if (target.getPublishDate() == null) {
+            target.setPublishDate(source.getPublishDate());
+            target.setPublishDatePrecision(source.getPublishDatePrecision());
+        }
+        if (target.getPageCount() <= 0) {
+            target.setPageCount(source.getPageCount());
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    // References to removed rows move to the kept row, unless it is on loan to another user;
+    // removed rows were not borrowed, so such a reference was stale and is dropped
+    private static void remapUserReferences(UserDao userDao, Map<String, Book> replacedBy) {
+        for (User user : userDao.getAllUsersSync()) {
+            List<String> ids = user.getBorrowedBookIdsList();
+            if (ids.isEmpty()) {
+                continue;
+            }
+            List<String> remapped = new ArrayList<>(ids.size());
+            boolean changed = false;
+            for (String id : ids) {
+                Book replacement = replacedBy.get(id);
+                if (replacement != null) {
+                    changed = true;
+                    if ((replacement.isBorrowed() && !user.getId().equals(replacement.getBorrowedBy()))
+                            || remapped.contains(replacement.getId())) {
+                        continue;
+                    }
+                    id = replacement.getId();
+                }
+                remapped.add(id);
+            }
+            if (changed) {
+                userDao.updateBorrowedBooks(user.getId(), String.join(",", remapped));
+            }
+        }
+    }
+}
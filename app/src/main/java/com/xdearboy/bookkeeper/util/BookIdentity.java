@@ -0,0 +1,70 @@
+package com.xdearboy.bookkeeper.util;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Stable ids for books. A book from Google Books is identified by its volume id, a local
+ * book by its ISBN, so saving the same book twice updates one row instead of adding another.
+ * Only local books without an ISBN get a random id.
+ *
+ * Also decides when two records describe the same book: when they share an id, an
+ * {@link #isbnKey} or a {@link #titleAuthorKey}. Search result merging and the compaction
+ * of the books table both go by this rule.
+ */
+public final class BookIdentity {
+    public static final String ISBN_PREFIX = "isbn:";
+    private static final Pattern NOT_ISBN_CHAR = Pattern.compile("[^0-9X]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private BookIdentity() {
+    }
+
+    /**
+     * The id to store the book under. A book that already has an id keeps it (for API books
+     * it is the volume id), so existing rows are never re-keyed.
+     */
+    public static String stableId(Book book) {
+        String id = book.getId();
+        if (id != null && !id.isEmpty()) {
+            return id;
+        }
+        String isbn = normalizeIsbn(book.getIsbn());
+        if (!isbn.isEmpty()) {
+            return ISBN_PREFIX + isbn;
+        }
+        return UUID.randomUUID().toString();
+    }
+
+    /** ISBN without hyphens and spaces, upper case; empty if there is none. */
+    public static String normalizeIsbn(String isbn) {
+        if (isbn == null) {
+            return "";
+        }
+        return NOT_ISBN_CHAR.matcher(isbn.toUpperCase(Locale.ROOT)).replaceAll("");
+    }
+
+    /** The normalized ISBN as an identity key; null if the book has no ISBN. */
+    public static String isbnKey(Book book) {
+        String isbn = normalizeIsbn(book.getIsbn());
+        return isbn.isEmpty() ? null : ISBN_PREFIX + isbn;
+    }
+
+    /** The normalized title and author as an identity key; null if the book has no title. */
+    public static String titleAuthorKey(Book book) {
+        String title = normalizeText(book.getTitle());
+        if (title.isEmpty()) {
+            return null;
+        }
+        return title + '\u0001' + normalizeText(book.getAuthor());
+    }
+
+    private static String normalizeText(String value) {
+        if (value == null) {
+            return "";
+        }
+        return WHITESPACE.matcher(value.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+}
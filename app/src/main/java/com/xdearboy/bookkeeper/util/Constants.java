@@ -5,4 +5,13 @@ public class Constants {
     public static final int PAGE_SIZE = 10; // Уменьшаем размер страницы для снижения нагрузки на API и согласно запросу
     public static final int IMAGE_CACHE_SIZE = 10 * 1024 * 1024; // 10 МБ
     public static final int NETWORK_TIMEOUT = 30;
+    public static final long SEARCH_CACHE_TTL_MS = 60 * 60 * 1000L; // после часа результат отдаётся, но обновляется в фоне
+    public static final long SEARCH_CACHE_MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L; // старше недели - промах
+    public static final int SEARCH_CACHE_MAX_BYTES = 4 * 1024 * 1024; // 4 МБ результатов поиска в памяти
+    public static final long SEARCH_HEDGE_DEADLINE_MS = 2000L; // поиск с запасными запросами ждём не дольше задержки хеджирования плюс две секунды
+    public static final long HYDRATION_DEADLINE_MS = 5000L; // догрузку списка книг ждём не дольше пяти секунд
+    public static final long PLANNED_SEARCH_DEADLINE_MS = 5000L; // поиск по плану запросов ждём не дольше пяти секунд
+    public static final boolean USE_SYNTHETIC_BOOKS = false; // синтетический каталог вместо Google Books (без ключа включается сам)
+    public static final int SYNTHETIC_CATALOG_SIZE = 5000; // книг в синтетическом каталоге
+    public static final long SYNTHETIC_CATALOG_SEED = 42L; // один и тот же seed - один и тот же каталог
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.xdearboy.bookkeeper.util;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Parses Google Books publishedDate values, which come as "yyyy", "yyyy-MM" or "yyyy-MM-dd".
+ * Stateless and thread-safe; invalid input yields {@link #PRECISION_NONE} instead of an
+ * exception. The timestamp is local midnight of the first day the value covers, as the
+ * previous SimpleDateFormat-based parsing produced for full dates.
+ */
+public final class PublishDateParser {
+    public static final int PRECISION_NONE = 0;
+    public static final int PRECISION_YEAR = 1;
+    public static final int PRECISION_MONTH = 2;
+    public static final int PRECISION_DAY = 3;
+
+    private PublishDateParser() {
+    }
+
+    /** @return the precision of a well-formed value, or {@link #PRECISION_NONE} */
+    public static int precisionOf(String value) {
+        if (value == null) {
+            return PRECISION_NONE;
+        }
+        int length = value.length();
+        if (length < 4 || digits(value, 0, 4) < 0) {
+            return PRECISION_NONE;
+        }
+        if (length == 4) {
+            return PRECISION_YEAR;
+        }
+        if (length < 7 || value.charAt(4) != '-') {
+            return PRECISION_NONE;
+        }
+        int month = digits(value, 5, 7);
+        if (month < 1 || month > 12) {
+            return PRECISION_NONE;
+        }
+        if (length == 7) {
+            return PRECISION_MONTH;
+        }
+        // A time part ("2005-03-01T00:00:00Z") is occasionally present and ignored
+        if (length < 10 || value.charAt(7) != '-' || (length > 10 && value.charAt(10) != 'T')) {
+            return PRECISION_NONE;
+        }
+        int day = digits(value, 8, 10);
+        if (day < 1 || day > lengthOfMonth(digits(value, 0, 4), month)) {
+            return PRECISION_NONE;
+        }
+        return PRECISION_DAY;
+    }
+
+    /**
+     * @param precision the result of {@link #precisionOf} for the same value; must not be
+     *                  {@link #PRECISION_NONE}
+     */
+    public static long toEpochMillis(String value, int precision) {
+        int year = digits(value, 0, 4);
+        int month = precision >= PRECISION_MONTH ? digits(value, 5, 7) : 1;
+        int day = precision == PRECISION_DAY ? digits(value, 8, 10) : 1;
+        return LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // Value of the decimal digits in [start, end), or -1 if any of them is not a digit
+    private static int digits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
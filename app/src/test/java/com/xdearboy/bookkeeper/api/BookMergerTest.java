@@ -0,0 +1,61 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class BookMergerTest {
+
+    @Test
+    public void firstArrivalWinsForEveryIdentityKey() {
+        BookMerger merger = new BookMerger();
+        Book primary = book("vol1", "Мастер и Маргарита", "Булгаков", "978-5-17-090663-2");
+        assertEquals(1, merger.addAll(Arrays.asList(primary)));
+        // Same volume id, same ISBN in another spelling, same title and author
+        Book sameId = book("vol1", "Другое название", "Другой автор", null);
+        Book sameIsbn = book("vol2", "Мастер и Маргарита. Роман", "М. Булгаков", "9785170906632");
+        Book sameTitle = book("vol3", "  мастер и  маргарита ", "Булгаков", null);
+        assertEquals(0, merger.addAll(Arrays.asList(sameId, sameIsbn, sameTitle)));
+        assertEquals(Arrays.asList(primary), merger.snapshot());
+    }
+
+    @Test
+    public void dropsDuplicatesWithinOneBatchAndKeepsArrivalOrder() {
+        BookMerger merger = new BookMerger();
+        Book idiot = book("vol1", "Идиот", "Достоевский", null);
+        Book demons = book("vol2", "Бесы", "Достоевский", null);
+        Book idiotAgain = book("vol3", "Идиот", "Достоевский", null);
+        Book gambler = book("vol4", "Игрок", "Достоевский", null);
+        assertEquals(2, merger.addAll(Arrays.asList(idiot, demons, idiotAgain)));
+        assertTrue(merger.add(gambler));
+        assertFalse(merger.add(idiotAgain));
+        assertEquals(Arrays.asList(idiot, demons, gambler), merger.snapshot());
+        assertEquals(3, merger.size());
+    }
+
+    @Test
+    public void booksWithoutKeysAreKeptApart() {
+        BookMerger merger = new BookMerger();
+        // Same author, but no ISBN and different titles: not the same book
+        assertEquals(2, merger.addAll(Arrays.asList(book("vol1", "Война и мир", "Толстой", null),
+                book("vol2", "Анна Каренина", "Толстой", null))));
+        assertEquals(0, merger.addAll(null));
+        assertEquals(0, merger.addAll(Collections.emptyList()));
+        assertEquals(2, merger.size());
+        assertFalse(merger.isEmpty());
+    }
+
+    private static Book book(String id, String title, String author, String isbn) {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        book.setAuthor(author);
+        book.setIsbn(isbn);
+        return book;
+    }
+}
@@ -0,0 +1,136 @@
+package com.xdearboy.bookkeeper.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Replays a recorded Google Books volumes response from {@code okhttp3.mockwebserver}.
+ * Search requests get a slice of the recorded items sized by maxResults and startIndex,
+ * volume requests get the recorded item with that id. Queries containing
+ * {@link #EMPTY_QUERY_MARKER} find nothing. Latency, bandwidth and failures are
+ * configurable; failures are drawn from a fixed seed so runs are repeatable.
+ */
+public class FixtureDispatcher extends Dispatcher {
+    static final String EMPTY_QUERY_MARKER = "нет-результатов";
+
+    private final JsonArray items;
+    private final Map<String, JsonObject> volumes = new HashMap<>();
+    private final Random failures = new Random(1);
+
+    private volatile long latencyMs;
+    private volatile long throttleBytes;
+    private volatile long throttlePeriodMs;
+    private volatile double failureRate;
+    private volatile int failureCode = 503;
+
+    public FixtureDispatcher(String resource) throws IOException {
+        JsonObject page = JsonParser.parseString(readResource(resource)).getAsJsonObject();
+        items = page.getAsJsonArray("items");
+        for (JsonElement item : items) {
+            volumes.put(item.getAsJsonObject().get("id").getAsString(), item.getAsJsonObject());
+        }
+    }
+
+    /** Delay before the response headers of every request. */
+    public void setLatency(long millis) {
+        latencyMs = millis;
+    }
+
+    /** Limits response bodies to {@code bytes} per {@code periodMs}; 0 turns it off. */
+    public void setThrottle(long bytes, long periodMs) {
+        throttleBytes = bytes;
+        throttlePeriodMs = periodMs;
+    }
+
+    /** A share of requests, from 0 to 1, answered with {@code code} instead of the fixture. */
+    void setFailureRate(double rate, int code) {
+        failureRate = rate;
+        failureCode = code;
+    }
+
+    Iterable<String> volumeIds() {
+        return volumes.keySet();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        MockResponse response = answer(request.getRequestUrl());
+        if (latencyMs > 0) {
+            response.setHeadersDelay(latencyMs, TimeUnit.MILLISECONDS);
+        }
+        if (throttleBytes > 0) {
+            response.throttleBody(throttleBytes, throttlePeriodMs, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    private MockResponse answer(HttpUrl url) {
+        boolean fail;
+        synchronized (failures) {
+            fail = failures.nextDouble() < failureRate;
+        }
+        if (fail) {
+            return json(failureCode, "{\"error\":{\"code\":" + failureCode + ",\"message\":\"injected\"}}");
+        }
+        int volumesSegment = url.pathSegments().indexOf("volumes");
+        if (volumesSegment >= 0 && volumesSegment + 1 < url.pathSize()) {
+            JsonObject volume = volumes.get(url.pathSegments().get(volumesSegment + 1));
+            return volume != null ? json(200, volume.toString()) : json(404, "{\"error\":{\"code\":404}}");
+        }
+        String query = url.queryParameter("q");
+        if (query == null || query.contains(EMPTY_QUERY_MARKER)) {
+            return json(200, "{\"kind\":\"books#volumes\",\"totalItems\":0}");
+        }
+        int maxResults = intParameter(url, "maxResults", 10);
+        int startIndex = intParameter(url, "startIndex", 0);
+        JsonArray slice = new JsonArray();
+        for (int i = startIndex; i < startIndex + maxResults && i < items.size(); i++) {
+            slice.add(items.get(i));
+        }
+        JsonObject page = new JsonObject();
+        page.addProperty("kind", "books#volumes");
+        page.addProperty("totalItems", items.size());
+        if (slice.size() > 0) {
+            page.add("items", slice);
+        }
+        return json(200, page.toString());
+    }
+
+    private static int intParameter(HttpUrl url, String name, int fallback) {
+        String value = url.queryParameter(name);
+        try {
+            return value != null ? Integer.parseInt(value) : fallback;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static MockResponse json(int code, String body) {
+        return new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json; charset=UTF-8")
+                .setBody(body);
+    }
+
+    private static String readResource(String path) throws IOException {
+        try (InputStream in = FixtureDispatcher.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("Missing test resource " + path);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
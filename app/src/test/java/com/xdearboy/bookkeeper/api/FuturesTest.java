@@ -0,0 +1,186 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Test;
+
+public class FuturesTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void keepsOrderAndSkipsFailures() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        CompletableFuture<String> third = new CompletableFuture<>();
+        CompletableFuture<List<String>> all = Futures.allOf(Arrays.asList(first, second, third), 10_000, scheduler);
+        third.complete("c");
+        second.completeExceptionally(new IllegalStateException("boom"));
+        first.complete("a");
+        assertEquals(Arrays.asList("a", "c"), all.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void deadlineCancelsStragglers() throws Exception {
+        CompletableFuture<String> fast = CompletableFuture.completedFuture("fast");
+        CompletableFuture<String> stuck = new CompletableFuture<>();
+        List<String> results = Futures.allOf(Arrays.asList(fast, stuck), 50, scheduler).get(1, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("fast"), results);
+        assertTrue(stuck.isCancelled());
+    }
+
+    @Test
+    public void cancellingTheResultCancelsEveryFuture() {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        Futures.allOf(Arrays.asList(first, second), 10_000, scheduler).cancel(false);
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void boundedFanOutStartsTasksAsEarlierOnesComplete() throws Exception {
+        List<CompletableFuture<String>> started = new ArrayList<>();
+        List<Supplier<CompletableFuture<String>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(() -> {
+                CompletableFuture<String> task = new CompletableFuture<>();
+                started.add(task);
+                return task;
+            });
+        }
+        CompletableFuture<List<String>> all = Futures.allOf(tasks, 2, 10_000, scheduler);
+        assertEquals(2, started.size());
+        started.get(1).complete("b");
+        assertEquals(3, started.size());
+        started.get(2).complete("c");
+        started.get(0).complete("a");
+        assertEquals(Arrays.asList("a", "b", "c"), all.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void boundedFanOutNeverStartsTasksAfterTheDeadline() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<String> stuck = new CompletableFuture<>();
+        List<Supplier<CompletableFuture<String>>> tasks = Arrays.asList(() -> {
+            started.incrementAndGet();
+            return stuck;
+        }, () -> {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture("late");
+        });
+        assertTrue(Futures.allOf(tasks, 1, 50, scheduler).get(1, TimeUnit.SECONDS).isEmpty());
+        assertTrue(stuck.isCancelled());
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    public void anyOfStartsTheOthersOnlyAfterAnInconclusiveFirstTask() throws Exception {
+        List<CompletableFuture<Integer>> started = new ArrayList<>();
+        List<Supplier<CompletableFuture<Integer>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(() -> {
+                CompletableFuture<Integer> task = new CompletableFuture<>();
+                started.add(task);
+                return task;
+            });
+        }
+        CompletableFuture<Boolean> any = Futures.anyOf(tasks, (index, value) -> value >= 10, -1, 10_000, scheduler);
+        assertEquals(1, started.size());
+        started.get(0).complete(3);
+        assertEquals(3, started.size());
+        started.get(2).complete(12);
+        assertTrue(any.get(1, TimeUnit.SECONDS));
+        assertTrue(started.get(1).isCancelled());
+    }
+
+    @Test
+    public void anyOfCompletesWithFalseWhenNoResultIsEnough() throws Exception {
+        List<Supplier<CompletableFuture<Integer>>> tasks = Arrays.asList(
+                () -> CompletableFuture.completedFuture(1),
+                () -> {
+                    CompletableFuture<Integer> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new IllegalStateException("boom"));
+                    return failed;
+                });
+        assertFalse(Futures.anyOf(tasks, (index, value) -> value >= 10, -1, 10_000, scheduler)
+                .get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void anyOfHedgesASlowFirstTaskAndStopsAtTheDeadline() throws Exception {
+        CompletableFuture<Integer> slow = new CompletableFuture<>();
+        CompletableFuture<Integer> hedged = new CompletableFuture<>();
+        AtomicInteger hedgedStarts = new AtomicInteger();
+        List<Supplier<CompletableFuture<Integer>>> tasks = Arrays.asList(() -> slow, () -> {
+            hedgedStarts.incrementAndGet();
+            return hedged;
+        });
+        CompletableFuture<Boolean> any = Futures.anyOf(tasks, (index, value) -> true, 20, 100, scheduler);
+        try {
+            any.get(1, TimeUnit.SECONDS);
+            throw new AssertionError("The deadline should have ended the search");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(1, hedgedStarts.get());
+        assertTrue(slow.isCancelled());
+        assertTrue(hedged.isCancelled());
+    }
+
+    @Test
+    public void completesExactlyOnceUnderConcurrentCompletion() throws Exception {
+        int count = 64;
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        AtomicInteger deliveries = new AtomicInteger();
+        CountDownLatch delivered = new CountDownLatch(1);
+        Futures.allOf(futures, 10_000, scheduler).thenAccept(results -> {
+            deliveries.incrementAndGet();
+            assertEquals(count, results.size());
+            delivered.countDown();
+        });
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                futures.get(index).complete(index);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(delivered.await(1, TimeUnit.SECONDS));
+        assertEquals(1, deliveries.get());
+    }
+}
@@ -0,0 +1,100 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class InFlightRequestsTest {
+    private static final String KEY = "search:толстой#20";
+
+    private final InFlightRequests inFlight = new InFlightRequests();
+
+    @Test
+    public void followersJoinTheLeaderAndShareItsResult() {
+        RecordingCallback leader = new RecordingCallback();
+        RecordingCallback follower = new RecordingCallback();
+        assertTrue(inFlight.join(KEY, leader));
+        assertFalse(inFlight.join(KEY, follower));
+        List<Book> books = Arrays.asList(new Book());
+        inFlight.complete(KEY, books);
+        assertEquals(Arrays.asList(books), leader.results);
+        assertEquals(Arrays.asList(books), follower.results);
+        // Completed requests are forgotten: the next caller leads a new one
+        assertTrue(inFlight.join(KEY, new RecordingCallback()));
+    }
+
+    @Test
+    public void failureReachesEveryWaiterOnce() {
+        RecordingCallback leader = new RecordingCallback();
+        RecordingCallback follower = new RecordingCallback();
+        inFlight.join(KEY, leader);
+        inFlight.join(KEY, follower);
+        inFlight.fail(KEY, "ошибка");
+        inFlight.complete(KEY, new ArrayList<>());
+        assertEquals(Arrays.asList("ошибка"), leader.errors);
+        assertEquals(Arrays.asList("ошибка"), follower.errors);
+        assertTrue(leader.results.isEmpty());
+    }
+
+    @Test
+    public void requestIsCancelledOnlyWhenTheLastWaiterLeaves() {
+        RecordingCallback leader = new RecordingCallback();
+        RecordingCallback follower = new RecordingCallback();
+        AtomicInteger cancelled = new AtomicInteger();
+        inFlight.join(KEY, leader);
+        inFlight.join(KEY, follower);
+        assertTrue(inFlight.attach(KEY, cancelled::incrementAndGet));
+        inFlight.leave(KEY, leader);
+        assertEquals(0, cancelled.get());
+        inFlight.leave(KEY, follower);
+        assertEquals(1, cancelled.get());
+        // Work started after the abandonment is not registered
+        assertFalse(inFlight.attach(KEY, cancelled::incrementAndGet));
+        inFlight.complete(KEY, new ArrayList<>());
+        assertTrue(leader.results.isEmpty());
+        assertTrue(follower.results.isEmpty());
+    }
+
+    @Test
+    public void progressReachesOnlyStreamingWaiters() {
+        RecordingCallback plain = new RecordingCallback();
+        StreamingCallback streaming = new StreamingCallback();
+        inFlight.join(KEY, plain);
+        inFlight.join(KEY, streaming);
+        List<Book> partial = Arrays.asList(new Book());
+        inFlight.progress(KEY, partial);
+        assertEquals(Arrays.asList(partial), streaming.partials);
+        assertTrue(plain.results.isEmpty());
+    }
+
+    private static class RecordingCallback implements BookApiClient.OnSearchResultCallback {
+        final List<List<Book>> results = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void onSuccess(List<Book> books) {
+            results.add(books);
+        }
+
+        @Override
+        public void onError(String message) {
+            errors.add(message);
+        }
+    }
+
+    private static class StreamingCallback extends RecordingCallback implements BookApiClient.StreamingSearchCallback {
+        final List<List<Book>> partials = new ArrayList<>();
+
+        @Override
+        public void onPartial(List<Book> books) {
+            partials.add(books);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.xdearboy.bookkeeper.api;
+
+/**
+ * JUnit category of the slow, timing-dependent latency benchmarks. They are left out of the
+ * regular unit-test run and started on their own with {@code -PlatencyBenchmark}.
+ */
+public interface LatencyBenchmark {
+}
@@ -0,0 +1,80 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Test;
+import retrofit2.Call;
+
+public class NegativeCacheTest {
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final NegativeCache cache = new NegativeCache(now::get);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void eachOutcomeExpiresAfterItsOwnTtl() {
+        for (NegativeCache.Outcome outcome : NegativeCache.Outcome.values()) {
+            String key = SearchKey.search("ничего " + outcome, 20);
+            cache.record(key, outcome);
+            now.addAndGet(outcome.ttlMs - 1);
+            // Any size of the same search is answered
+            assertEquals(outcome, cache.get(SearchKey.search("ничего " + outcome, 40)));
+            now.addAndGet(1);
+            assertNull(outcome.name(), cache.get(key));
+        }
+    }
+
+    @Test
+    public void deadlineCutOffIsRememberedAsTimeout() throws Exception {
+        SyntheticBookApiService slow = new SyntheticBookApiService(7, 100);
+        slow.setLatency(10_000, 10_000);
+        SyntheticBookApiService fast = new SyntheticBookApiService(7, 100);
+        Call<VolumePage> primary = slow.searchBooks("дом", 20, "");
+        // Answers at once, with no books
+        Call<VolumePage> fallback = fast.searchBooks("щщщщ", 20, "");
+        CompletableFuture<NegativeCache.Tally> completed = new CompletableFuture<>();
+        new HedgedSearch(Arrays.asList(primary, fallback), 10, true, 50, scheduler,
+                new HedgedSearch.LatencyEstimate(), new HedgedSearch.Listener() {
+                    @Override
+                    public void onProgress(List<Book> merged) {
+                    }
+
+                    @Override
+                    public void onComplete(List<Book> merged, NegativeCache.Tally outcomes) {
+                        completed.complete(outcomes);
+                    }
+                }).start();
+        NegativeCache.Tally outcomes = completed.get(5, TimeUnit.SECONDS);
+        // The empty fallback does not make the search known to be empty
+        assertEquals(NegativeCache.Outcome.TIMEOUT, outcomes.outcome());
+    }
+
+    @Test
+    public void quotaRejectionIsNotRemembered() {
+        assertNull(NegativeCache.classify(new QuotaGuard.QuotaExceededException("quota")));
+        assertNull(NegativeCache.classify(429));
+        NegativeCache.Tally outcomes = new NegativeCache.Tally();
+        outcomes.failure(NegativeCache.classify(new QuotaGuard.QuotaExceededException("quota")));
+        outcomes.failure(NegativeCache.classify(429));
+        assertNull(outcomes.outcome());
+
+        assertEquals(NegativeCache.Outcome.TIMEOUT, NegativeCache.classify(new SocketTimeoutException()));
+        assertEquals(NegativeCache.Outcome.CLIENT_ERROR, NegativeCache.classify(400));
+        assertEquals(NegativeCache.Outcome.SERVER_ERROR, NegativeCache.classify(503));
+    }
+}
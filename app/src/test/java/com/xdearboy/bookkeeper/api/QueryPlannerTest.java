@@ -0,0 +1,48 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public class QueryPlannerTest {
+    private final QueryPlanner planner = new QueryPlanner();
+
+    @Test
+    public void blankQueryPlansNothing() {
+        assertTrue(planner.plan(null, 20).isEmpty());
+        assertTrue(planner.plan("   ", 20).isEmpty());
+    }
+
+    @Test
+    public void primaryQueryComesFirstThenTheCategoryVariant() {
+        List<QueryPlanner.PlannedQuery> plan = planner.plan("  звёздные   войны ", 20);
+        assertEquals(2, plan.size());
+        assertEquals("звёздные войны", plan.get(0).text);
+        assertEquals(QueryPlanner.PRIORITY_PRIMARY, plan.get(0).priority);
+        assertEquals("звёздные войны история", plan.get(1).text);
+        assertEquals(QueryPlanner.PRIORITY_CATEGORY, plan.get(1).priority);
+    }
+
+    @Test
+    public void variantWithTheSameWordsIsDropped() {
+        // The category adds no new word, so the variant would return the same volumes
+        List<QueryPlanner.PlannedQuery> plan = planner.plan("Детектив", 20);
+        assertEquals(1, plan.size());
+        assertEquals("Детектив", plan.get(0).text);
+    }
+
+    @Test
+    public void shortQueryGetsNoVariant() {
+        assertEquals(1, planner.plan("код", 20).size());
+    }
+
+    @Test
+    public void budgetIsCappedByTheApiLimit() {
+        for (QueryPlanner.PlannedQuery planned : planner.plan("история России", 100)) {
+            assertEquals(QueryPlanner.MAX_RESULTS_PER_REQUEST, planned.budget);
+        }
+        assertEquals(1, planner.plan("история России", 0).get(0).budget);
+    }
+}
@@ -0,0 +1,123 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class QuotaGuardTest {
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutorRule = new InstantTaskExecutorRule();
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final QuotaGuard guard = new QuotaGuard(now::get);
+    private final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(guard).build();
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void emptyBucketFailsFastUntilRefilled() throws IOException {
+        for (int i = 0; i < 8; i++) {
+            server.enqueue(new MockResponse());
+            assertEquals(200, call());
+        }
+        assertRejected();
+        assertEquals(8, server.getRequestCount());
+        // 0.8 of a token is back: the rest comes within the wait bound
+        now.addAndGet(400);
+        server.enqueue(new MockResponse());
+        assertEquals(200, call());
+        // The next token is 600 ms away
+        assertRejected();
+        now.addAndGet(600);
+        server.enqueue(new MockResponse());
+        assertEquals(200, call());
+    }
+
+    @Test
+    public void longRetryAfterIsReturnedInsteadOfWaitedFor() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "5"));
+        assertEquals(429, call());
+        assertEquals(1, server.getRequestCount());
+        assertEquals(QuotaGuard.State.AVAILABLE, guard.getState().getValue());
+    }
+
+    @Test
+    public void repeatedRateLimitsOpenTheBreakerUntilAProbeSucceeds() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(429));
+        }
+        // Two short retries, then the third 429 opens the breaker
+        assertEquals(429, call());
+        assertEquals(3, server.getRequestCount());
+        assertEquals(QuotaGuard.State.LIMITED, guard.getState().getValue());
+        assertTrue(guard.isOpen());
+        assertRejected();
+        assertEquals(3, server.getRequestCount());
+
+        now.addAndGet(30_000);
+        assertFalse(guard.isOpen());
+        server.enqueue(new MockResponse());
+        assertEquals(200, call());
+        assertEquals(QuotaGuard.State.AVAILABLE, guard.getState().getValue());
+    }
+
+    @Test
+    public void failedProbeReopensForTwiceAsLong() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(403)
+                .setBody("{\"error\":{\"errors\":[{\"reason\":\"dailyLimitExceeded\"}]}}"));
+        assertEquals(403, call());
+        assertEquals(QuotaGuard.State.LIMITED, guard.getState().getValue());
+
+        now.addAndGet(60 * 60 * 1000L);
+        server.enqueue(new MockResponse().setResponseCode(429));
+        assertEquals(429, call());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(QuotaGuard.State.LIMITED, guard.getState().getValue());
+
+        now.addAndGet(59_000);
+        assertRejected();
+        now.addAndGet(1_000);
+        server.enqueue(new MockResponse());
+        assertEquals(200, call());
+        assertEquals(QuotaGuard.State.AVAILABLE, guard.getState().getValue());
+    }
+
+    private int call() throws IOException {
+        try (Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute()) {
+            return response.code();
+        }
+    }
+
+    private void assertRejected() throws IOException {
+        try {
+            call();
+            fail("request was not rejected");
+        } catch (QuotaGuard.QuotaExceededException expected) {
+            // Rejected before reaching the server
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Compares {@link RelevanceRanker} with the comparator-based sort BookApiClient used before,
+ * on 500-book result sets. Prints ns/op for both.
+ */
+public class RelevanceRankerBenchmarkTest {
+    private static final int BOOK_COUNT = 500;
+    private static final int WARMUP_ITERATIONS = 300;
+    private static final int MEASURED_ITERATIONS = 2000;
+    private static final String QUERY = "пикник на обочине стругацкий";
+
+    private static final String[] TITLE_WORDS = {
+            "пикник", "на", "обочине", "трудно", "быть", "богом", "понедельник", "начинается",
+            "в", "субботу", "улитка", "склоне", "град", "обреченный", "жук", "муравейнике"
+    };
+    private static final String[] AUTHORS = {
+            "Аркадий Стругацкий, Борис Стругацкий", "Станислав Лем", "Иван Ефремов",
+            "Кир Булычёв", "Сергей Лукьяненко", "Стругацкий"
+    };
+
+    @Test
+    public void rankerMatchesComparatorOrder() {
+        List<Book> books = generateBooks(new Random(7));
+        List<Book> expected = new ArrayList<>(books);
+        legacySort(expected, QUERY);
+        List<Book> actual = new ArrayList<>(books);
+        RelevanceRanker.defaultRanker().rank(actual, QUERY);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void benchmarkRanking() {
+        List<Book> books = generateBooks(new Random(7));
+        RelevanceRanker ranker = RelevanceRanker.defaultRanker();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            legacySort(new ArrayList<>(books), QUERY);
+            ranker.rank(new ArrayList<>(books), QUERY);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            legacySort(new ArrayList<>(books), QUERY);
+        }
+        long legacyNanos = (System.nanoTime() - start) / MEASURED_ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            ranker.rank(new ArrayList<>(books), QUERY);
+        }
+        long rankerNanos = (System.nanoTime() - start) / MEASURED_ITERATIONS;
+        System.out.println(String.format(Locale.US, "comparator sort: %,d ns/op", legacyNanos));
+        System.out.println(String.format(Locale.US, "ranker:          %,d ns/op", rankerNanos));
+    }
+
+    private static List<Book> generateBooks(Random random) {
+        List<Book> books = new ArrayList<>(BOOK_COUNT);
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            StringBuilder title = new StringBuilder();
+            int words = 2 + random.nextInt(4);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    title.append(' ');
+                }
+                title.append(TITLE_WORDS[random.nextInt(TITLE_WORDS.length)]);
+            }
+            if (i % 50 == 0) {
+                title.setLength(0);
+                title.append("Пикник на обочине стругацкий");
+            }
+            Book book = new Book();
+            book.setId("volume-" + i);
+            book.setTitle(Character.toUpperCase(title.charAt(0)) + title.substring(1));
+            book.setAuthor(AUTHORS[random.nextInt(AUTHORS.length)]);
+            books.add(book);
+        }
+        return books;
+    }
+
+    // The sort BookApiClient used before RelevanceRanker
+    private static void legacySort(List<Book> books, String query) {
+        final String lowerQuery = query.toLowerCase();
+        Collections.sort(books, (book1, book2) -> {
+            int relevance1 = legacyRelevance(book1, lowerQuery);
+            int relevance2 = legacyRelevance(book2, lowerQuery);
+            return Integer.compare(relevance2, relevance1);
+        });
+    }
+
+    private static int legacyRelevance(Book book, String lowerQuery) {
+        int relevance = 0;
+        String title = book.getTitle();
+        if (title != null) {
+            String lowerTitle = title.toLowerCase();
+            if (lowerTitle.equals(lowerQuery)) {
+                relevance += 100;
+            } else if (lowerTitle.startsWith(lowerQuery)) {
+                relevance += 50;
+            } else if (lowerTitle.contains(lowerQuery)) {
+                relevance += 30;
+            } else {
+                for (String word : lowerQuery.split("\\s+")) {
+                    if (word.length() > 2 && lowerTitle.contains(word)) {
+                        relevance += 10;
+                    }
+                }
+            }
+        }
+        String author = book.getAuthor();
+        if (author != null) {
+            String lowerAuthor = author.toLowerCase();
+            if (lowerAuthor.equals(lowerQuery)) {
+                relevance += 80;
+            } else if (lowerAuthor.startsWith(lowerQuery)) {
+                relevance += 40;
+            } else if (lowerAuthor.contains(lowerQuery)) {
+                relevance += 20;
+            } else {
+                for (String word : lowerQuery.split("\\s+")) {
+                    if (word.length() > 2 && lowerAuthor.contains(word)) {
+                        relevance += 5;
+                    }
+                }
+            }
+        }
+        return relevance;
+    }
+}
@@ -0,0 +1,94 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class SearchCacheTest {
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntryOnceTheByteBudgetIsFull() {
+        List<Book> books = books(5);
+        int entryBytes = SearchCache.estimateBytes(SearchKey.baseOf(key("a")), books);
+        SearchCache cache = new SearchCache(2 * entryBytes + entryBytes / 2, null);
+        cache.put(key("a"), books);
+        cache.put(key("b"), books);
+        // Touch "a", so "b" is the least recently used
+        assertTrue(cache.contains(key("a")));
+        cache.put(key("c"), books);
+        assertTrue(cache.contains(key("a")));
+        assertFalse(cache.contains(key("b")));
+        assertTrue(cache.contains(key("c")));
+    }
+
+    @Test
+    public void largerEntriesTakeMoreOfTheBudget() {
+        int small = SearchCache.estimateBytes(SearchKey.baseOf(key("a")), books(1));
+        int large = SearchCache.estimateBytes(SearchKey.baseOf(key("a")), books(10));
+        assertTrue(large > 5 * small);
+        SearchCache cache = new SearchCache(large + small - 1, null);
+        cache.put(key("a"), books(1));
+        cache.put(key("b"), books(1));
+        // One large list pushes out both small ones
+        cache.put(key("c"), books(10));
+        assertFalse(cache.contains(key("a")));
+        assertFalse(cache.contains(key("b")));
+        assertEquals(10, cache.get(key("c")).size());
+    }
+
+    @Test
+    public void trimMemoryFollowsTheLevel() {
+        List<Book> books = books(5);
+        SearchCache cache = new SearchCache(1 << 20, null);
+        for (String query : new String[] { "a", "b", "c", "d" }) {
+            cache.put(key(query), books);
+        }
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        // Also makes "a" the most recently used
+        assertTrue(cache.contains(key("a")));
+
+        // Half of the bytes go, the least recently used entries first
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertFalse(cache.contains(key("b")));
+        assertFalse(cache.contains(key("c")));
+        assertTrue(cache.contains(key("d")));
+        assertTrue(cache.contains(key("a")));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertFalse(cache.contains(key("d")));
+        assertFalse(cache.contains(key("a")));
+    }
+
+    @Test
+    public void freshLargerEntryAnswersSmallerSizes() {
+        SearchCache cache = new SearchCache(1 << 20, null);
+        cache.put(SearchKey.search("толстой", 40), books(40));
+        cache.put(SearchKey.search("толстой", 20), books(20));
+        assertEquals(40, cache.get(SearchKey.search("толстой", 40)).size());
+        assertEquals(20, cache.get(SearchKey.search("толстой", 20)).size());
+        assertNull(cache.get(SearchKey.search("толстой", 60)));
+    }
+
+    private static String key(String query) {
+        return SearchKey.search(query, 20);
+    }
+
+    private static List<Book> books(int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Book book = new Book();
+            book.setId("vol" + i);
+            book.setTitle("Книга " + i);
+            book.setAuthor("Автор");
+            books.add(book);
+        }
+        return books;
+    }
+}
@@ -0,0 +1,54 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class SearchKeyTest {
+
+    @Test
+    public void composesDecomposedCharacters() {
+        // "й" typed as "и" and a combining breve
+        assertEquals("толстой", SearchKey.canonicalQuery("толсто\u0438\u0306"));
+        assertEquals(SearchKey.search("Толстой", 20), SearchKey.search("Толсто\u0438\u0306", 20));
+    }
+
+    @Test
+    public void foldsCase() {
+        assertEquals("толстой", SearchKey.canonicalQuery("ТОЛСТОЙ"));
+        assertEquals("strasse", SearchKey.canonicalQuery("Straße"));
+    }
+
+    @Test
+    public void collapsesWhitespace() {
+        assertEquals("война и мир", SearchKey.canonicalQuery("  Война \t и  мир\n"));
+        assertEquals("", SearchKey.canonicalQuery(" \t "));
+        assertEquals("", SearchKey.canonicalQuery(null));
+    }
+
+    @Test
+    public void foldsYoToYe() {
+        assertEquals("еж", SearchKey.canonicalQuery("Ёж"));
+        // "ё" typed as "е" and a combining diaeresis
+        assertEquals("еж", SearchKey.canonicalQuery("\u0435\u0308ж"));
+    }
+
+    @Test
+    public void keyIsBaseAndSize() {
+        String key = SearchKey.search(" Толстой ", 40);
+        assertEquals(SearchKey.search("толстой", 40), key);
+        assertEquals(SearchKey.baseOf(SearchKey.search("ТОЛСТОЙ", 20)), SearchKey.baseOf(key));
+        assertEquals(40, SearchKey.sizeOf(key));
+        assertNotEquals(SearchKey.baseOf(SearchKey.page("толстой", 0, 40)), SearchKey.baseOf(key));
+        assertEquals(0, SearchKey.sizeOf("без размера"));
+        assertEquals("без размера", SearchKey.baseOf("без размера"));
+    }
+
+    @Test
+    public void hashInTheQueryDoesNotBreakTheSize() {
+        String key = SearchKey.search("c# in depth", 10);
+        assertEquals(10, SearchKey.sizeOf(key));
+        assertEquals("search:c# in depth", SearchKey.baseOf(key));
+    }
+}
@@ -0,0 +1,269 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+import com.xdearboy.bookkeeper.model.Book;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * End-to-end latency of the public search methods of {@link BookApiClient}, against a local
+ * server replaying a recorded Google Books response (see {@link FixtureDispatcher}). Prints
+ * p50/p95/p99 and requests per call for each method, and fails when a method needs more
+ * requests than it should or its p95 leaves the budget of the scenario. Every call uses a
+ * new query, so it goes to the server rather than to the client's caches.
+ *
+ * BookRepository is not measured separately: outside an Android runtime it has no database,
+ * and its searches are these methods plus local queries.
+ */
+@Category(LatencyBenchmark.class)
+public class SearchLatencyBenchmarkTest {
+    private static final int ITERATIONS = 30;
+    private static final int THROTTLED_ITERATIONS = 10;
+    private static final long SERVER_LATENCY_MS = 30;
+    private static final long CALL_TIMEOUT_SECONDS = 10;
+    // Far above the ~75 ms a call takes locally, so a slow CI machine passes; an extra
+    // round trip per call or a hedge delay on the critical path does not
+    private static final long BASELINE_P95_BUDGET_MS = 400;
+    // A throttled 20-volume page alone takes about 400 ms
+    private static final long THROTTLED_P95_BUDGET_MS = 2000;
+    private static final long QUIET_PERIOD_MS = 150;
+
+    @Rule
+    public final InstantTaskExecutorRule instantTasks = new InstantTaskExecutorRule();
+
+    private MockWebServer server;
+    private FixtureDispatcher fixtures;
+    private BookApiClient client;
+
+    private interface Operation {
+        void start(int iteration, Runnable done);
+    }
+
+    private static final class Result {
+        final String method;
+        final long[] millis;
+        final double requestsPerCall;
+
+        Result(String method, long[] millis, int requests) {
+            this.method = method;
+            this.millis = millis.clone();
+            Arrays.sort(this.millis);
+            this.requestsPerCall = requests / (double) millis.length;
+        }
+
+        long percentile(double p) {
+            int index = (int) Math.ceil(p * millis.length) - 1;
+            return millis[Math.max(0, Math.min(millis.length - 1, index))];
+        }
+
+        void print(String scenario) {
+            System.out.println(String.format(Locale.US, "%-9s %-28s p50=%4d ms  p95=%4d ms  p99=%4d ms  requests/call=%.2f",
+                    scenario, method, percentile(0.50), percentile(0.95), percentile(0.99), requestsPerCall));
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        fixtures = new FixtureDispatcher("/fixtures/volumes_ru_40.json");
+        server = new MockWebServer();
+        server.setDispatcher(fixtures);
+        server.start();
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(server.url("/books/v1/"))
+                .client(HttpStack.getInstance().newClientBuilder().build())
+                .addConverterFactory(VolumeConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+        client = new BookApiClient(null, retrofit.create(BookApiService.class));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void baseline() throws InterruptedException {
+        fixtures.setLatency(SERVER_LATENCY_MS);
+        List<Result> results = measureAll("baseline", ITERATIONS);
+        assertRequestsPerCall(results, "searchBooks", 1);
+        assertRequestsPerCall(results, "searchBooksLatestWins", 1);
+        // The first planned query fills the page
+        assertRequestsPerCall(results, "searchBooks(planned)", 1);
+        // The page, plus one page prefetched unless the next call changes the query first
+        double pageRequests = find(results, "loadBooksPage").requestsPerCall;
+        assertTrue("loadBooksPage requests per call " + pageRequests, pageRequests >= 1 && pageRequests <= 2);
+        assertRequestsPerCall(results, "getBookDetails", 1);
+        assertRequestsPerCall(results, "hydrateBooks(4)", 4);
+        assertRequestsPerCall(results, "searchCachedOnly", 0);
+        // Fallbacks are hedged behind the primary; they may only go out if it is slow
+        assertTrue(find(results, "searchBooksLiveData").requestsPerCall <= 3);
+        for (Result result : results) {
+            assertTrue(result.method + " p95 " + result.percentile(0.95) + " ms",
+                    result.percentile(0.95) <= BASELINE_P95_BUDGET_MS);
+        }
+    }
+
+    @Test
+    public void repeatedEmptySearchIsNotSentAgain() throws InterruptedException {
+        fixtures.setLatency(SERVER_LATENCY_MS);
+        String query = "запрос " + FixtureDispatcher.EMPTY_QUERY_MARKER;
+        Result first = measure("searchBooks(empty)", 1, (i, done) -> client.searchBooks(query, callback(done)));
+        Result repeated = measure("searchBooks(empty, again)", ITERATIONS,
+                (i, done) -> client.searchBooks(query, callback(done)));
+        first.print("empty");
+        repeated.print("empty");
+        assertEquals(1, first.requestsPerCall, 0);
+        assertEquals(0, repeated.requestsPerCall, 0);
+    }
+
+    @Test
+    public void failuresDoNotStallSearches() throws InterruptedException {
+        fixtures.setLatency(SERVER_LATENCY_MS);
+        fixtures.setFailureRate(0.3, 503);
+        // Every call has to complete; measure() fails on the first one that does not
+        for (Result result : measureAll("503x30%", ITERATIONS)) {
+            assertTrue(result.method + " p99 " + result.percentile(0.99) + " ms",
+                    result.percentile(0.99) <= TimeUnit.SECONDS.toMillis(CALL_TIMEOUT_SECONDS));
+        }
+    }
+
+    @Test
+    public void throttledResponses() throws InterruptedException {
+        fixtures.setLatency(SERVER_LATENCY_MS);
+        // About 1.3 Mbit/s: a 20-volume page takes about 400 ms
+        fixtures.setThrottle(16 * 1024, 100);
+        for (Result result : measureAll("throttled", THROTTLED_ITERATIONS)) {
+            assertTrue(result.method + " p95 " + result.percentile(0.95) + " ms",
+                    result.percentile(0.95) <= THROTTLED_P95_BUDGET_MS);
+        }
+    }
+
+    private List<Result> measureAll(String scenario, int iterations) throws InterruptedException {
+        List<String> ids = new ArrayList<>();
+        for (String id : fixtures.volumeIds()) {
+            ids.add(id);
+        }
+        int hydrateBatches = ids.size() / 4;
+        List<Result> results = new ArrayList<>();
+        results.add(measure("searchBooks", iterations,
+                (i, done) -> client.searchBooks(scenario + " поиск " + i, callback(done))));
+        results.add(measure("searchBooksLatestWins", iterations,
+                (i, done) -> client.searchBooksLatestWins(scenario + " последний " + i, callback(done))));
+        results.add(measure("searchBooks(planned)", iterations,
+                (i, done) -> client.searchBooks(scenario + " план " + i, 20, callback(done))));
+        results.add(measure("searchBooksLiveData", iterations,
+                (i, done) -> observeOnce(client.searchBooksLiveData(scenario + " лайв " + i, 20), done)));
+        results.add(measure("loadBooksPage", iterations,
+                (i, done) -> client.loadBooksPage(scenario + " страница " + i, 0, books -> done.run())));
+        results.add(measure("getBookDetails", iterations,
+                (i, done) -> client.getBookDetails(ids.get(i % ids.size()), new BookApiClient.OnBookResultCallback() {
+                    @Override
+                    public void onSuccess(Book book) {
+                        done.run();
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        done.run();
+                    }
+                })));
+        // Hydrated volumes are kept in memory, so every call asks for ids not seen before
+        results.add(measure("hydrateBooks(4)", Math.min(iterations, hydrateBatches),
+                (i, done) -> client.hydrateBooks(ids.subList(i * 4, i * 4 + 4), callback(done))));
+        results.add(measure("searchCachedOnly", iterations,
+                (i, done) -> client.searchCachedOnly(scenario + " поиск " + i, callback(done))));
+        for (Result result : results) {
+            result.print(scenario);
+        }
+        return results;
+    }
+
+    private Result measure(String method, int iterations, Operation operation) throws InterruptedException {
+        long[] millis = new long[iterations];
+        int before = settledRequestCount();
+        for (int i = 0; i < iterations; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            long start = System.nanoTime();
+            operation.start(i, done::countDown);
+            assertTrue(method + " did not complete", done.await(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        // Prefetches and hedged fallbacks may still be on the wire after the callback
+        return new Result(method, millis, settledRequestCount() - before);
+    }
+
+    private int settledRequestCount() throws InterruptedException {
+        int count = server.getRequestCount();
+        while (true) {
+            Thread.sleep(QUIET_PERIOD_MS);
+            int now = server.getRequestCount();
+            if (now == count) {
+                return now;
+            }
+            count = now;
+        }
+    }
+
+    private static BookApiClient.OnSearchResultCallback callback(Runnable done) {
+        return new BookApiClient.OnSearchResultCallback() {
+            @Override
+            public void onSuccess(List<Book> books) {
+                done.run();
+            }
+
+            @Override
+            public void onError(String message) {
+                done.run();
+            }
+        };
+    }
+
+    // The LiveData search posts partial results only while fallbacks run; with a full
+    // primary response the first value is the final one
+    private static void observeOnce(LiveData<List<Book>> liveData, Runnable done) {
+        AtomicInteger seen = new AtomicInteger();
+        liveData.observeForever(new Observer<List<Book>>() {
+            @Override
+            public void onChanged(List<Book> books) {
+                if (books != null && seen.getAndIncrement() == 0) {
+                    liveData.removeObserver(this);
+                    done.run();
+                }
+            }
+        });
+    }
+
+    private static Result find(List<Result> results, String method) {
+        for (Result result : results) {
+            if (result.method.equals(method)) {
+                return result;
+            }
+        }
+        throw new AssertionError("No result for " + method);
+    }
+
+    private static void assertRequestsPerCall(List<Result> results, String method, double expected) {
+        assertEquals(method + " requests per call", expected, find(results, method).requestsPerCall, 0);
+    }
+}
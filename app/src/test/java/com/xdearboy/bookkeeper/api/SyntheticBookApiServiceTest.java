@@ -0,0 +1,123 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+public class SyntheticBookApiServiceTest {
+    private static final String LIST_FIELDS = FieldProjection.LIST.forPage();
+
+    @Test
+    public void sameSeedGivesSameCatalog() {
+        SyntheticBookApiService first = new SyntheticBookApiService(7, 1000);
+        SyntheticBookApiService second = new SyntheticBookApiService(7, 1000);
+        SyntheticBookApiService other = new SyntheticBookApiService(8, 1000);
+        for (int i = 0; i < 1000; i += 97) {
+            assertEquals(first.getBook(i).getTitle(), second.getBook(i).getTitle());
+            assertEquals(first.getBook(i).getAuthor(), second.getBook(i).getAuthor());
+            assertEquals(first.getBook(i).getIsbn(), second.getBook(i).getIsbn());
+        }
+        assertNotEquals(first.getBook(0).getIsbn(), other.getBook(0).getIsbn());
+    }
+
+    @Test
+    public void searchMatchesEveryWordOfTheQuery() throws IOException {
+        SyntheticBookApiService service = new SyntheticBookApiService(7, 2000);
+        Book sample = service.getBook(0);
+        String query = "\"" + sample.getTitle().split(" ")[0].toUpperCase(Locale.ROOT) + "\" "
+                + sample.getAuthor().split(" ")[1];
+        VolumePage page = service.searchBooksByLanguage(query, 40, "ru", LIST_FIELDS, "").execute().body();
+        assertFalse(page.getBooks().isEmpty());
+        for (Book book : page.getBooks()) {
+            String text = (book.getTitle() + ' ' + book.getAuthor()).toLowerCase(Locale.ROOT);
+            assertTrue(text, text.contains(sample.getTitle().split(" ")[0].toLowerCase(Locale.ROOT)));
+            // The list projection leaves out descriptions, like Google Books
+            assertEquals("", book.getDescription());
+        }
+        assertTrue(service.searchBooksByLanguage("несуществующее", 40, "ru", LIST_FIELDS, "").execute()
+                .body().getBooks().isEmpty());
+    }
+
+    @Test
+    public void pagesDoNotOverlap() throws IOException {
+        SyntheticBookApiService service = new SyntheticBookApiService(7, 5000);
+        String query = "дом";
+        int total = service.searchBooks(query, 1, "").execute().body().getTotalItems();
+        assertTrue(total > 20);
+        Set<String> ids = new HashSet<>();
+        for (int start = 0; start < 20; start += 10) {
+            List<Book> books = service.searchBooksWithPaginationAndLanguage(query, 10, start, "ru", LIST_FIELDS, "")
+                    .execute().body().getBooks();
+            assertEquals(10, books.size());
+            for (Book book : books) {
+                assertTrue(ids.add(book.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void injectsErrorsAndTimeoutsAtTheConfiguredRates() {
+        SyntheticBookApiService service = new SyntheticBookApiService(7, 100);
+        service.setErrorRate(0.2, 503);
+        service.setTimeoutRate(0.1);
+        int errors = 0;
+        int timeouts = 0;
+        int calls = 2000;
+        for (int i = 0; i < calls; i++) {
+            try {
+                Response<VolumePage> response = service.searchBooks("дом", 10, "").execute();
+                if (!response.isSuccessful()) {
+                    assertEquals(503, response.code());
+                    errors++;
+                }
+            } catch (SocketTimeoutException e) {
+                timeouts++;
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+        assertEquals(0.2, errors / (double) calls, 0.03);
+        assertEquals(0.1, timeouts / (double) calls, 0.03);
+    }
+
+    @Test
+    public void cancelledCallFailsLikeOkHttp() throws InterruptedException {
+        SyntheticBookApiService service = new SyntheticBookApiService(7, 100);
+        service.setLatency(5_000, 5_000);
+        Call<VolumePage> call = service.searchBooks("дом", 10, "");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        call.enqueue(new Callback<VolumePage>() {
+            @Override
+            public void onResponse(Call<VolumePage> call, Response<VolumePage> response) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Call<VolumePage> call, Throwable t) {
+                failure.set(t);
+                done.countDown();
+            }
+        });
+        call.cancel();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(call.isCanceled());
+        assertTrue(failure.get() instanceof IOException);
+    }
+}
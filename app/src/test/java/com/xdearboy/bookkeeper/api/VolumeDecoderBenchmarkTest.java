@@ -0,0 +1,201 @@
+package com.xdearboy.bookkeeper.api;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.xdearboy.bookkeeper.model.Book;
+import com.xdearboy.bookkeeper.util.PublishDateParser;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares {@link VolumeStreamDecoder} with the previous Gson object graph + conversion path
+ * on a recorded 40-item volumes page. Prints ns/op and allocated bytes/op for both paths.
+ */
+public class VolumeDecoderBenchmarkTest {
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    private static String fixture;
+
+    @BeforeClass
+    public static void loadFixture() throws IOException {
+        fixture = readResource("/fixtures/volumes_ru_40.json");
+    }
+
+    @Test
+    public void streamingDecoderMatchesGsonPath() throws IOException {
+        List<Book> expected = decodeWithGson(fixture);
+        List<Book> actual = decodeStreaming(fixture).getBooks();
+        assertEquals(40, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Book e = expected.get(i);
+            Book a = actual.get(i);
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getTitle(), a.getTitle());
+            assertEquals(e.getAuthor(), a.getAuthor());
+            assertEquals(e.getDescription(), a.getDescription());
+            assertEquals(e.getGenre(), a.getGenre());
+            if (e.getPublishDate() != null) {
+                // The old path only understood full dates; partial ones are covered by PublishDateParserTest
+                assertEquals(e.getPublishDate(), a.getPublishDate());
+                assertEquals(PublishDateParser.PRECISION_DAY, a.getPublishDatePrecision());
+            }
+            assertEquals(e.getCoverImageUrl(), a.getCoverImageUrl());
+            assertEquals(e.getPublisher(), a.getPublisher());
+            assertEquals(e.getPageCount(), a.getPageCount());
+            assertEquals(e.getIsbn(), a.getIsbn());
+            assertEquals(e.getLanguage(), a.getLanguage());
+            assertEquals(e.isFromApi(), a.isFromApi());
+        }
+    }
+
+    @Test
+    public void benchmarkDecodePaths() throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decodeWithGson(fixture);
+            decodeStreaming(fixture);
+        }
+        Measurement gson = measure(() -> decodeWithGson(fixture).size());
+        Measurement streaming = measure(() -> decodeStreaming(fixture).getBooks().size());
+        System.out.println("gson + convert: " + gson);
+        System.out.println("streaming:      " + streaming);
+    }
+
+    private interface Decode {
+        int run() throws IOException;
+    }
+
+    private static final class Measurement {
+        final long nanosPerOp;
+        final long bytesPerOp;
+
+        Measurement(long nanosPerOp, long bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%,d ns/op, %,d B/op", nanosPerOp, bytesPerOp);
+        }
+    }
+
+    private static Measurement measure(Decode decode) throws IOException {
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += decode.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytesBefore;
+        assertEquals(40L * MEASURED_ITERATIONS, sink);
+        return new Measurement(elapsed / MEASURED_ITERATIONS,
+                allocated < 0 ? -1 : allocated / MEASURED_ITERATIONS);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static VolumePage decodeStreaming(String json) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return new VolumeStreamDecoder().readPage(reader);
+        }
+    }
+
+    // The conversion BookApiClient used before the streaming decoder
+    private static List<Book> decodeWithGson(String json) {
+        BookApiResponse response = new Gson().fromJson(json, BookApiResponse.class);
+        if (response == null || response.getItems() == null) {
+            return Collections.emptyList();
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        List<Book> books = new ArrayList<>();
+        for (BookApiResponse.Item item : response.getItems()) {
+            BookApiResponse.VolumeInfo info = item.getVolumeInfo();
+            if (info == null) continue;
+            Book book = new Book();
+            book.setApiId(item.getId());
+            book.setTitle(info.getTitle());
+            if (info.getAuthors() != null && !info.getAuthors().isEmpty()) {
+                book.setAuthor(String.join(", ", info.getAuthors()));
+            } else {
+                book.setAuthor("Unknown Author");
+            }
+            book.setDescription(info.getDescription() != null ? info.getDescription() : "");
+            if (info.getCategories() != null && !info.getCategories().isEmpty()) {
+                book.setGenre(String.join(", ", info.getCategories()));
+            } else {
+                book.setGenre("General");
+            }
+            if (info.getPublishedDate() != null) {
+                try {
+                    book.setPublishDate(dateFormat.parse(info.getPublishedDate()).getTime());
+                } catch (ParseException ignored) {
+                }
+            }
+            if (info.getImageLinks() != null) {
+                if (info.getImageLinks().getThumbnail() != null) {
+                    book.setImageUrl(info.getImageLinks().getThumbnail().replace("http:", "https:"));
+                } else if (info.getImageLinks().getSmallThumbnail() != null) {
+                    book.setImageUrl(info.getImageLinks().getSmallThumbnail().replace("http:", "https:"));
+                }
+            }
+            if (info.getPublisher() != null) {
+                book.setPublisher(info.getPublisher());
+            }
+            if (info.getPageCount() > 0) {
+                book.setPageCount(info.getPageCount());
+            }
+            if (info.getIndustryIdentifiers() != null) {
+                for (BookApiResponse.IndustryIdentifier identifier : info.getIndustryIdentifiers()) {
+                    if ("ISBN_13".equals(identifier.getType())) {
+                        book.setIsbn(identifier.getIdentifier());
+                        break;
+                    } else if ("ISBN_10".equals(identifier.getType()) && book.getIsbn() == null) {
+                        book.setIsbn(identifier.getIdentifier());
+                    }
+                }
+            }
+            if (info.getLanguage() != null) {
+                book.setLanguage(info.getLanguage());
+            }
+            book.setFromApi(true);
+            books.add(book);
+        }
+        return books;
+    }
+
+    private static String readResource(String path) throws IOException {
+        try (InputStream in = VolumeDecoderBenchmarkTest.class.getResourceAsStream(path)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
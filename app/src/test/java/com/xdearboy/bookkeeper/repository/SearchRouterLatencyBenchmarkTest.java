@@ -0,0 +1,180 @@
+package com.xdearboy.bookkeeper.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.xdearboy.bookkeeper.api.BookApiClient;
+import com.xdearboy.bookkeeper.api.BookApiService;
+import com.xdearboy.bookkeeper.api.FixtureDispatcher;
+import com.xdearboy.bookkeeper.api.HttpStack;
+import com.xdearboy.bookkeeper.api.LatencyBenchmark;
+import com.xdearboy.bookkeeper.api.VolumeConverterFactory;
+import com.xdearboy.bookkeeper.database.dao.BookDao;
+import com.xdearboy.bookkeeper.model.Book;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Latency of a search through {@link SearchRouter}, the path {@link BookRepository#routeSearch}
+ * takes: the local query, the routed API search and the merge of both. The books table is
+ * replaced by a DAO answering from memory, since there is no database outside an Android
+ * runtime; the API side is the same local server as in the client benchmark. Prints
+ * p50/p95/p99 of the first and of the complete delivery, and fails when a search needs
+ * more requests than it should or its p95 leaves the budget.
+ */
+@Category(LatencyBenchmark.class)
+public class SearchRouterLatencyBenchmarkTest {
+    private static final int ITERATIONS = 30;
+    private static final long SERVER_LATENCY_MS = 30;
+    private static final long CALL_TIMEOUT_SECONDS = 10;
+    // Same budget as the client benchmark: the local query and the merge add milliseconds
+    private static final long COMPLETE_P95_BUDGET_MS = 400;
+    // Local results are shown before the API answers
+    private static final long FIRST_P95_BUDGET_MS = SERVER_LATENCY_MS;
+    private static final long QUIET_PERIOD_MS = 150;
+
+    private MockWebServer server;
+    private BookApiClient client;
+    private ExecutorService executor;
+    private volatile boolean online = true;
+    private SearchRouter router;
+
+    @Before
+    public void setUp() throws IOException {
+        FixtureDispatcher fixtures = new FixtureDispatcher("/fixtures/volumes_ru_40.json");
+        fixtures.setLatency(SERVER_LATENCY_MS);
+        server = new MockWebServer();
+        server.setDispatcher(fixtures);
+        server.start();
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(server.url("/books/v1/"))
+                .client(HttpStack.getInstance().newClientBuilder().build())
+                .addConverterFactory(VolumeConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+        client = new BookApiClient(null, retrofit.create(BookApiService.class));
+        executor = Executors.newSingleThreadExecutor();
+        router = new SearchRouter(() -> online, localBooks(), client, executor);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void liveSearch() throws InterruptedException {
+        int before = settledRequestCount();
+        long[] first = new long[ITERATIONS];
+        long[] complete = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            search("роутер поиск " + i, first, complete, i);
+        }
+        double requestsPerCall = (settledRequestCount() - before) / (double) ITERATIONS;
+        print("live", "first delivery", first, requestsPerCall);
+        print("live", "complete", complete, requestsPerCall);
+        // The primary query fills the 20 remote results
+        assertEquals(1, requestsPerCall, 0);
+        assertTrue("first p95 " + percentile(first, 0.95) + " ms", percentile(first, 0.95) <= FIRST_P95_BUDGET_MS);
+        assertTrue("complete p95 " + percentile(complete, 0.95) + " ms",
+                percentile(complete, 0.95) <= COMPLETE_P95_BUDGET_MS);
+    }
+
+    @Test
+    public void offlineSearchDoesNotTouchTheApi() throws InterruptedException {
+        online = false;
+        int before = settledRequestCount();
+        long[] first = new long[ITERATIONS];
+        long[] complete = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            search("роутер офлайн " + i, first, complete, i);
+        }
+        double requestsPerCall = (settledRequestCount() - before) / (double) ITERATIONS;
+        print("offline", "complete", complete, requestsPerCall);
+        assertEquals(0, requestsPerCall, 0);
+        assertTrue("complete p95 " + percentile(complete, 0.95) + " ms",
+                percentile(complete, 0.95) <= FIRST_P95_BUDGET_MS);
+    }
+
+    private void search(String query, long[] first, long[] complete, int i) throws InterruptedException {
+        CountDownLatch firstDelivery = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        router.search(query, (books, last) -> {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (firstDelivery.getCount() > 0) {
+                first[i] = elapsed;
+                firstDelivery.countDown();
+            }
+            if (last) {
+                complete[i] = elapsed;
+                done.countDown();
+            }
+        });
+        assertTrue(query + " did not complete", done.await(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    // Two local books for every query, so the merge has something to do
+    private static BookDao localBooks() {
+        Book first = localBook("local-1", "Роутер и поиск");
+        Book second = localBook("local-2", "Поиск по библиотеке");
+        return (BookDao) Proxy.newProxyInstance(BookDao.class.getClassLoader(), new Class<?>[] { BookDao.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("searchBooksExtended")) {
+                        return new ArrayList<>(Arrays.asList(first, second));
+                    }
+                    return method.getReturnType() == List.class ? Collections.emptyList() : null;
+                });
+    }
+
+    private static Book localBook(String id, String title) {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        book.setAuthor("Автор");
+        return book;
+    }
+
+    private int settledRequestCount() throws InterruptedException {
+        int count = server.getRequestCount();
+        while (true) {
+            Thread.sleep(QUIET_PERIOD_MS);
+            int now = server.getRequestCount();
+            if (now == count) {
+                return now;
+            }
+            count = now;
+        }
+    }
+
+    private static long percentile(long[] millis, double p) {
+        long[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static void print(String scenario, String delivery, long[] millis, double requestsPerCall) {
+        System.out.println(String.format(Locale.US, "%-9s %-28s p50=%4d ms  p95=%4d ms  p99=%4d ms  requests/call=%.2f",
+                scenario, "routeSearch " + delivery, percentile(millis, 0.50), percentile(millis, 0.95),
+                percentile(millis, 0.99), requestsPerCall));
+    }
+}
@@ -0,0 +1,77 @@
+package com.xdearboy.bookkeeper.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.xdearboy.bookkeeper.model.Book;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class BookCompactionTest {
+
+    @Test
+    public void groupsRowsSharingAnyIdentityKey() {
+        Book withIsbn = book("a", "Мастер и Маргарита", "Булгаков", "978-5-17-090663-2", true);
+        Book sameIsbn = book("b", "Мастер и Маргарита (роман)", "М. Булгаков", "9785170906632", true);
+        // Links to the first row by title and author although it has no ISBN
+        Book sameTitle = book("c", "  мастер и  маргарита ", "Булгаков", null, false);
+        Book other = book("d", "Белая гвардия", "Булгаков", null, false);
+        List<List<Book>> groups = BookCompaction.groupSameBooks(Arrays.asList(withIsbn, other, sameIsbn, sameTitle));
+        assertEquals(2, groups.size());
+        assertEquals(Arrays.asList(withIsbn, sameIsbn, sameTitle), groups.get(0));
+        assertEquals(Arrays.asList(other), groups.get(1));
+    }
+
+    @Test
+    public void onlyUnborrowedApiRowsAreRemovable() {
+        Book api = book("a", "Идиот", "Достоевский", null, true);
+        Book local = book("b", "Идиот", "Достоевский", null, false);
+        Book borrowed = book("c", "Идиот", "Достоевский", null, true);
+        borrowed.setBorrowed(true);
+        assertTrue(BookCompaction.isRemovable(api));
+        assertFalse(BookCompaction.isRemovable(local));
+        assertFalse(BookCompaction.isRemovable(borrowed));
+    }
+
+    @Test
+    public void localCopyTakesOverTheVolumeId() {
+        Book local = book("isbn:9785170906632", "Мастер и Маргарита", "Булгаков", "978-5-17-090663-2", false);
+        Book api = book("vol1", "Мастер и Маргарита", "Булгаков", "9785170906632", true);
+        api.setDescription("Роман");
+        Map<String, Book> replacedBy = new HashMap<>();
+        List<Book> kept = BookCompaction.mergeGroup(Arrays.asList(local, api), replacedBy);
+        assertEquals(Arrays.asList(local), kept);
+        // The next upsert of vol1 finds the copy instead of adding the API row back
+        assertEquals("vol1", local.getId());
+        assertFalse(local.isFromApi());
+        assertEquals("Роман", local.getDescription());
+        assertEquals(1, replacedBy.size());
+        assertEquals(local, replacedBy.get("isbn:9785170906632"));
+    }
+
+    @Test
+    public void apiRowsWithoutACopyKeepTheMostCompleteOne() {
+        Book bare = book("vol1", "Идиот", "Достоевский", null, true);
+        Book described = book("vol2", "Идиот", "Достоевский", null, true);
+        described.setDescription("Роман");
+        Map<String, Book> replacedBy = new HashMap<>();
+        List<Book> kept = BookCompaction.mergeGroup(Arrays.asList(bare, described), replacedBy);
+        assertEquals(Arrays.asList(described), kept);
+        assertEquals("vol2", described.getId());
+        assertEquals(described, replacedBy.get("vol1"));
+    }
+
+    private static Book book(String id, String title, String author, String isbn, boolean fromApi) {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        book.setAuthor(author);
+        book.setIsbn(isbn);
+        book.setFromApi(fromApi);
+        return book;
+    }
+}
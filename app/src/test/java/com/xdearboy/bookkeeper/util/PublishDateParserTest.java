@@ -0,0 +1,41 @@
+package com.xdearboy.bookkeeper.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import org.junit.Test;
+
+public class PublishDateParserTest {
+
+    @Test
+    public void recognizesAllPrecisions() {
+        assertEquals(PublishDateParser.PRECISION_YEAR, PublishDateParser.precisionOf("1967"));
+        assertEquals(PublishDateParser.PRECISION_MONTH, PublishDateParser.precisionOf("1967-05"));
+        assertEquals(PublishDateParser.PRECISION_DAY, PublishDateParser.precisionOf("1967-05-30"));
+        assertEquals(PublishDateParser.PRECISION_DAY, PublishDateParser.precisionOf("1967-05-30T00:00:00Z"));
+    }
+
+    @Test
+    public void rejectsMalformedValues() {
+        assertEquals(PublishDateParser.PRECISION_NONE, PublishDateParser.precisionOf(null));
+        assertEquals(PublishDateParser.PRECISION_NONE, PublishDateParser.precisionOf(""));
+        assertEquals(PublishDateParser.PRECISION_NONE, PublishDateParser.precisionOf("196"));
+        assertEquals(PublishDateParser.PRECISION_NONE, PublishDateParser.precisionOf("1967*"));
+        assertEquals(PublishDateParser.PRECISION_NONE, PublishDateParser.precisionOf("1967-13"));
+        assertEquals(PublishDateParser.PRECISION_NONE, PublishDateParser.precisionOf("1967-5"));
+        assertEquals(PublishDateParser.PRECISION_NONE, PublishDateParser.precisionOf("2023-02-29"));
+        assertEquals(PublishDateParser.PRECISION_DAY, PublishDateParser.precisionOf("2024-02-29"));
+    }
+
+    @Test
+    public void partialDatesStartAtTheirFirstDay() {
+        assertEquals(localMidnight(1967, 1, 1), PublishDateParser.toEpochMillis("1967", PublishDateParser.PRECISION_YEAR));
+        assertEquals(localMidnight(1967, 5, 1), PublishDateParser.toEpochMillis("1967-05", PublishDateParser.PRECISION_MONTH));
+        assertEquals(localMidnight(1967, 5, 30), PublishDateParser.toEpochMillis("1967-05-30", PublishDateParser.PRECISION_DAY));
+    }
+
+    private static long localMidnight(int year, int month, int day) {
+        return LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}